@@ -0,0 +1,108 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Преобразования CLOB и строки, используемые в Hills: запись строки (ProcessOrdersSink),
+ * запись символьным потоком (Hills.downloadStreaming), чтение целиком (Hills.getPriceList)
+ * и чтение символьным потоком (Hills.uploadStreaming).
+ * CLOB создается встроенной БД H2, поэтому замеряется работа на стороне Java,
+ * а не обмен драйвера Oracle с сервером.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClobBenchmark {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	@Param({ "1", "10", "100" })
+	public int pages;
+
+	private Connection dbcon;
+	private String orders;
+	private Clob filled;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:clob");
+		dbcon = dataSource.getConnection();
+		StringBuilder body = new StringBuilder();
+		for (String page : Payloads.orderPages(pages)) {
+			body.append(page);
+		}
+		orders = body.toString();
+		filled = dbcon.createClob();
+		filled.setString(1, orders);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		filled.free();
+		dbcon.close();
+	}
+
+	@Benchmark
+	public long setString() throws SQLException {
+		Clob clob = dbcon.createClob();
+		try {
+			clob.setString(1, orders);
+			return clob.length();
+		} finally {
+			clob.free();
+		}
+	}
+
+	@Benchmark
+	public long setCharacterStream() throws SQLException, IOException {
+		Clob clob = dbcon.createClob();
+		try {
+			try (Writer out = clob.setCharacterStream(1)) {
+				for (int i = 0; i < orders.length(); i += BUFFER_SIZE) {
+					out.write(orders, i, Math.min(BUFFER_SIZE, orders.length() - i));
+				}
+			}
+			return clob.length();
+		} finally {
+			clob.free();
+		}
+	}
+
+	@Benchmark
+	public String getSubString() throws SQLException {
+		return filled.getSubString(1, (int) filled.length());
+	}
+
+	@Benchmark
+	public long getCharacterStream() throws SQLException, IOException {
+		long retVal = 0;
+		char[] buffer = new char[BUFFER_SIZE];
+		try (Reader in = filled.getCharacterStream()) {
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				retVal += count;
+			}
+		}
+		return retVal;
+	}
+}
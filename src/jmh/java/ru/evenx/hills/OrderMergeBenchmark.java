@@ -0,0 +1,79 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Объединение страниц заказов: построением дерева JSON (OrderPageFetcher, HillsGateway.orderList)
+ * и потоковым копированием (HillsGateway.orderList с приемником Writer).
+ * Страницы отдаются из памяти, сетевой обмен не замеряется.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OrderMergeBenchmark {
+
+	@Param({ "1", "10", "100" })
+	public int pages;
+
+	private String[] pageBodies;
+	private HillsGateway gateway;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		pageBodies = Payloads.orderPages(pages);
+		GatewaySettings settings = new GatewaySettings();
+		settings.url = "http://localhost";
+		settings.token = "benchmark";
+		gateway = new HillsGateway(settings) {
+			@Override
+			GatewayResult orderListPaged(String page, String begDate, String endDate) {
+				GatewayResult retVal = new GatewayResult();
+				retVal.success = true;
+				retVal.responseCode = 200;
+				retVal.responseString = pageBodies[Integer.parseInt(page) - 1];
+				return retVal;
+			}
+		};
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		gateway.close();
+	}
+
+	@Benchmark
+	public String treeMerge() throws IOException {
+		return new OrderPageFetcher(gateway, 1).fetch("2019-03-01", "2019-03-31").responseString;
+	}
+
+	@Benchmark
+	public String streamMerge() throws IOException {
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginObject().name("results").beginArray();
+		GatewayResult result = new GatewayResult();
+		for (String page : pageBodies) {
+			HillsGateway.copyOrderPage(new StringReader(page), writer, result);
+		}
+		writer.endArray().endObject();
+		writer.flush();
+		return out.toString();
+	}
+}
@@ -0,0 +1,55 @@
+package ru.evenx.hills;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Тестовые данные для замеров: страницы заказов и прайс-листы в формате сервиса Hills
+ *
+ */
+final class Payloads {
+
+	/* Количество заказов на странице, как в ответах сервиса */
+	static final int PAGE_SIZE = 100;
+
+	private Payloads() {
+	}
+
+	/**
+	 * Страницы заказов
+	 * @param pages - количество страниц
+	 * @return тексты страниц {"count":..,"next":..,"previous":..,"results":[...]}
+	 */
+	static String[] orderPages(int pages) {
+		String[] retVal = new String[pages];
+		for (int page = 1; page <= pages; page++) {
+			StringBuilder body = new StringBuilder(PAGE_SIZE * 600);
+			body.append("{\"count\":").append(pages * PAGE_SIZE)
+				.append(",\"next\":").append(page < pages ? "\"http://hills/orders/?page=" + (page + 1) + "\"" : "null")
+				.append(",\"previous\":null,\"results\":[");
+			for (int i = (page - 1) * PAGE_SIZE; i < page * PAGE_SIZE; i++) {
+				if (i > (page - 1) * PAGE_SIZE) {
+					body.append(',');
+				}
+				MockHillsServer.appendOrder(body, i);
+			}
+			body.append("]}");
+			retVal[page - 1] = body.toString();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Прайс-лист
+	 * @param count - количество товаров
+	 */
+	static List<StockRecord> stockRecords(int count) {
+		List<StockRecord> retVal = new ArrayList<StockRecord>(count);
+		for (int i = 0; i < count; i++) {
+			retVal.add(new StockRecord(String.valueOf(10000 + i),
+					BigDecimal.valueOf(10000 + i % 5000, 2), BigDecimal.valueOf(i % 40)));
+		}
+		return retVal;
+	}
+}
@@ -0,0 +1,82 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Сериализация прайс-листа: в строку (StockRecord.toJson), разбор строки (StockRecord.parse)
+ * и потоковая запись тела запроса (EntityTemplate)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PriceListBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	public int records;
+
+	private List<StockRecord> stockRecords;
+	private String priceList;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		stockRecords = Payloads.stockRecords(records);
+		priceList = StockRecord.toJson(stockRecords);
+	}
+
+	@Benchmark
+	public String toJson() {
+		return StockRecord.toJson(stockRecords);
+	}
+
+	@Benchmark
+	public List<StockRecord> parse() {
+		return StockRecord.parse(priceList);
+	}
+
+	@Benchmark
+	public void streamingEntity(final Blackhole blackhole) throws IOException {
+		new EntityTemplate(new ContentProducer() {
+			@Override
+			public void writeTo(OutputStream stream) throws IOException {
+				JsonWriter writer = new JsonWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+				writer.beginObject().name("stock_records").beginArray();
+				for (StockRecord record : stockRecords) {
+					record.write(writer);
+				}
+				writer.endArray().endObject();
+				writer.flush();
+			}
+		}).writeTo(new OutputStream() {
+			@Override
+			public void write(int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				blackhole.consume(b);
+			}
+		});
+	}
+}
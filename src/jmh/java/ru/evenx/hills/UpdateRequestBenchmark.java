@@ -0,0 +1,38 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Формирование тела запроса PATCH изменения статуса заказа (HillsGateway.ordersPartialUpdate)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UpdateRequestBenchmark {
+
+	@Param({ "2019-03-04", "" })
+	public String shippingDate;
+
+	@Benchmark
+	public String updateRequest() {
+		return HillsGateway.getUpdateRequest(shippingDate, "awaiting_delivery").toString();
+	}
+
+	@Benchmark
+	public byte[] patchBody() throws IOException {
+		StringEntity entity = new StringEntity(HillsGateway.getUpdateRequest(shippingDate, "awaiting_delivery").toString());
+		return EntityUtils.toByteArray(entity);
+	}
+}
@@ -0,0 +1,93 @@
+package ru.evenx.hills;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Ход дозагрузки истории заказов: список полностью записанных в БД интервалов.
+ * Хранится в текстовом файле, в который дописываются строки "начало\tконец\tколичество заказов",
+ * поэтому прерванная дозагрузка при следующем запуске пропускает уже записанные интервалы.
+ *
+ */
+class BackfillProgress {
+
+	private static final String SEPARATOR = "\t";
+
+	private final File file;
+	private final Set<String> done = new HashSet<String>();
+	private Writer writer = null;
+
+	/**
+	 * Открывает файл хода дозагрузки, загружая ранее сделанные записи
+	 * @param file - файл хода дозагрузки
+	 * @throws IOException
+	 */
+	public BackfillProgress(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split(SEPARATOR, -1);
+					if (fields.length == 3) {
+						done.add(fields[0] + SEPARATOR + fields[1]);
+					}
+				}
+			}
+		}
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Проверяет, записан ли интервал
+	 * @param begDate - начальная дата интервала
+	 * @param endDate - конечная дата интервала
+	 */
+	public synchronized boolean isDone(String begDate, String endDate) {
+		return done.contains(begDate + SEPARATOR + endDate);
+	}
+
+	/**
+	 * Отмечает интервал как записанный; запись сразу сбрасывается в файл
+	 * @param begDate - начальная дата интервала
+	 * @param endDate - конечная дата интервала
+	 * @param orders - количество заказов интервала
+	 * @throws IOException
+	 */
+	public synchronized void record(String begDate, String endDate, int orders) throws IOException {
+		done.add(begDate + SEPARATOR + endDate);
+		writer.write(begDate + SEPARATOR + endDate + SEPARATOR + orders + "\n");
+		writer.flush();
+	}
+
+	/**
+	 * Закрывает файл
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+
+	/**
+	 * Закрывает и удаляет файл после записи всех интервалов
+	 * @throws IOException
+	 */
+	public synchronized void clear() throws IOException {
+		writer.close();
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot delete " + file);
+		}
+		done.clear();
+	}
+}
@@ -0,0 +1,88 @@
+package ru.evenx.hills;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Отметка незавершенной конвейерной загрузки заказов: начальная дата диапазона
+ * и номер последней страницы, заказы которой полностью записаны в БД.
+ * Следующий запуск продолжает загрузку с этой страницы (она загружается повторно,
+ * на случай сдвига страниц из-за новых заказов) с той же начальной датой,
+ * а не с даты hills.get_last_order_date, которая уже сдвинулась из-за записанных страниц.
+ * После успешной загрузки всех страниц отметка удаляется.
+ * Ограничения: отметка хранит только номер страницы, а не ключ заказа, поэтому продолжение корректно,
+ * пока сервис не меняет порядок заказов между запусками. Новые заказы в начале списка сдвигают страницы
+ * вперед, и часть заказов загружается повторно (запись в БД идемпотентна); удаление заказов
+ * или другая сортировка сдвигают страницы назад, и заказы на границе отметки могут быть пропущены
+ * (их загрузит только дозагрузка backfill за этот диапазон дат). Отметку ведет только режим pipelined:
+ * режимы default и streaming записывают заказы одним вызовом, и прерванная загрузка повторяется целиком.
+ *
+ */
+class DownloadCheckpoint {
+
+	private static final String SEPARATOR = "\t";
+
+	private final File file;
+	private final Watermark watermark;
+	private String begDate = null;
+	private int page = 0;
+
+	/**
+	 * @param file - файл отметки
+	 */
+	public DownloadCheckpoint(File file) {
+		this.file = file;
+		this.watermark = new Watermark(file);
+	}
+
+	/**
+	 * Читает отметку
+	 * @return true, если есть незавершенная загрузка
+	 * @throws IOException
+	 */
+	public boolean load() throws IOException {
+		String value = watermark.read();
+		if (value == null) {
+			return false;
+		}
+		String[] fields = value.split(SEPARATOR);
+		if (fields.length != 2) {
+			return false;
+		}
+		begDate = fields[0];
+		page = Integer.parseInt(fields[1]);
+		return true;
+	}
+
+	/**
+	 * Сохраняет отметку
+	 * @param begDate - начальная дата загружаемого диапазона
+	 * @param page - последняя страница, полностью записанная в БД
+	 * @throws IOException
+	 */
+	public void save(String begDate, int page) throws IOException {
+		watermark.write(begDate + SEPARATOR + page);
+		this.begDate = begDate;
+		this.page = page;
+	}
+
+	/**
+	 * Удаляет отметку после завершения загрузки
+	 * @throws IOException
+	 */
+	public void clear() throws IOException {
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot delete " + file);
+		}
+		begDate = null;
+		page = 0;
+	}
+
+	public String getBegDate() {
+		return begDate;
+	}
+
+	public int getPage() {
+		return page;
+	}
+}
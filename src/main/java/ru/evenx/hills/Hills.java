@@ -1,27 +1,47 @@
 package ru.evenx.hills;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.CallableStatement;
 import java.sql.Clob;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Types;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.mail.EmailException;
+import org.apache.http.entity.ContentProducer;
 import org.jasypt.util.text.BasicTextEncryptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.FileAppender;
 
 /**
@@ -36,13 +56,63 @@ class Hills {
 	private final String DB_CONNECTION_STRING = "jdbc:oracle:thin:@localhost:1521:ODB";
 	private final String OPERATION_DOWLOAD = "download";
 	private final String OPERATION_UPLOAD = "upload";
+	private final String OPERATION_BACKFILL = "backfill";
+	private final String OPERATION_FEED = "feed";
+	private final String DOWNLOAD_STREAMING = "streaming";
+	private final String DOWNLOAD_PIPELINED = "pipelined";
+	private final int DEFAULT_PIPELINE_QUEUE = 4;
+	private final int DEFAULT_STATUS_THREADS = 4;
+	private final int DEFAULT_FETCH_SIZE = 500;
+	private final int DEFAULT_STATUS_LOOKBACK = 14;
+	private final String DEFAULT_STATUS_WATERMARK = "hills-status.watermark";
+	private final String DEFAULT_STATUS_JOURNAL = "hills-status.journal";
+	private final String DEFAULT_DOWNLOAD_CHECKPOINT = "hills-download.checkpoint";
+	private final String DEFAULT_ORDER_PAGE_CACHE = "hills-orders.cache";
+	private final String DEFAULT_BACKFILL_PROGRESS = "hills-backfill.progress";
+	private final int DEFAULT_BACKFILL_THREADS = 4;
+	private final String BACKFILL_SLICE_DAY = "day";
+	private final String BACKFILL_SLICE_WEEK = "week";
+	private final String DEFAULT_STOCK_SNAPSHOT = "hills-stock.snapshot";
+	private final int DEFAULT_STOCK_RESYNC = 24;
+	private final int DEFAULT_UPLOAD_THREADS = 4;
+	private final int DEFAULT_UPLOAD_RETRIES = 3;
+	private final int DEFAULT_FEED_WINDOW = 30;
+	private final int DEFAULT_FEED_BATCH = 500;
+	private final int DEFAULT_FEED_RESCAN = 24;
+	private final String DEFAULT_FEED_WATERMARK = "hills-stock-feed.watermark";
+	private final String DEFAULT_FEED_SNAPSHOT = "hills-stock-feed.snapshot";
+	private final String UPLOAD_SOURCE_JDBC = "jdbc";
+	private final String ORDER_SINK_JDBC = "jdbc";
+	private final int DEFAULT_DB_POOL_SIZE = 4;
+	private final int DEFAULT_DB_STATEMENT_CACHE = 50;
+	private final String ORACLE_STATEMENT_CACHE_SIZE = "oracle.jdbc.implicitStatementCacheSize";
+	private final int DEFAULT_PAYLOAD_LIMIT = 1000;
+	private final int DEFAULT_PAYLOAD_SAMPLE = 1;
 	
 	private static final Logger log = LoggerFactory.getLogger("ru.evenx.logback");
 	
 	private Settings settings = null;
-	private Connection dbcon = null;
+	private String tenant = null;
+	private HikariDataSource dataSource = null;
 	private HillsGateway gateway = null;	
 	private Mailer logMailer = null;	
+	private int skippedStatusUpdates = 0;
+	private final Metrics metrics = new Metrics();
+	private PayloadLog payloadLog = null;
+	private StockFeed stockFeed = null;
+	
+	public Hills() {
+	}
+	
+	/**
+	 * Экземпляр для одного потребителя из общего файла настроек
+	 * @param settings - настройки потребителя (см. {@link Settings#forTenant(TenantSettings)})
+	 * @param tenant - имя потребителя
+	 */
+	Hills(Settings settings, String tenant) {
+		this.settings = settings;
+		this.tenant = tenant;
+	}
 	
 	/**
 	 * Разбор файла настроек
@@ -52,36 +122,62 @@ class Hills {
 	 */
 	public void readSettings(File settingsFile) throws HillsException {
 		
-        try {
-        	JAXBContext jc = JAXBContext.newInstance(Settings.class);
-            Unmarshaller unmarshaller = jc.createUnmarshaller();
-			settings = (Settings) unmarshaller.unmarshal(settingsFile);
-		} catch (JAXBException e) {
-			throw new HillsException("Read settings exception", e);
-		}
+		settings = SettingsReader.read(settingsFile);
 	}
 
 	/**
 	 * Подключение к БД СКАТ
 	 */
 	public void logOn() throws HillsException {		
+		HikariConfig config = dataSourceConfig();
 		try {
-			Class.forName(JDBC_DRIVER);
-			dbcon = DriverManager.getConnection(DB_CONNECTION_STRING, settings.db.login, 
-					Hills.decryptPass(settings.db.password));
-		} catch (ClassNotFoundException | SQLException e) {
+			dataSource = new HikariDataSource(config);
+		} catch (RuntimeException e) {
 			throw new HillsException("DB connection exception", e);
 		}
 	}
 	
+	/**
+	 * Пул подключений к БД СКАТ; при первом обращении выполняется подключение,
+	 * поэтому операции, которым БД не нужна до первого запроса к сервису, не ждут его
+	 */
+	private synchronized HikariDataSource dataSource() throws HillsException {
+		if (dataSource == null) {
+			logOn();
+		}
+		return dataSource;
+	}
+	
+	private HikariConfig dataSourceConfig() throws HillsException {
+		if (settings.db == null) {
+			throw new HillsException("DB settings not found in settings file");
+		}
+		HikariConfig config = new HikariConfig();
+		config.setPoolName(tenant == null ? "hills-db" : "hills-db-" + tenant);
+		config.setDriverClassName(JDBC_DRIVER);
+		config.setJdbcUrl(settings.db.url != null ? settings.db.url : DB_CONNECTION_STRING);
+		config.setUsername(settings.db.login);
+		config.setPassword(Hills.decryptPass(settings.db.password));
+		config.setMaximumPoolSize(Settings.toInt(settings.db.poolSize, DEFAULT_DB_POOL_SIZE));
+		config.setMinimumIdle(1);
+		config.addDataSourceProperty(ORACLE_STATEMENT_CACHE_SIZE, 
+				String.valueOf(Settings.toInt(settings.db.statementCache, DEFAULT_DB_STATEMENT_CACHE)));
+		return config;
+	}
+	
 	/**
 	 * Отключение от БД СКАТ
 	 */
 	public void logOff() throws HillsException {
-		try {
-			dbcon.close();
-		} catch (SQLException e) {
-			throw new HillsException("DB close connection exception", e);
+		if (dataSource != null) {
+			dataSource.close();
+		}
+		if (gateway != null) {
+			try {
+				gateway.close();
+			} catch (IOException e) {
+				throw new HillsException("HTTP close connection exception", e);
+			}
 		}
 	}
 	
@@ -90,61 +186,464 @@ class Hills {
 	 */
 	public void doWork() throws HillsException {
 		
-		gateway = new HillsGateway(settings.gateway);
+		if (settings.operation == null) {
+			throw new HillsException("Operation not found in settings file");
+		}
+		prepare();
+		runOperation(settings.operation.value);
+		drainStockFeed();
+		long timeToFirstRequest = metrics.getTimeToFirstRequest();
+		if (timeToFirstRequest >= 0) {
+			log.info(String.format("Time to first request: %1$d ms", timeToFirstRequest));
+		}
+	}
+	
+	/**
+	 * Создает шлюз к сервису Hills.
+	 * Подключение к БД и почтовый клиент создаются при первом обращении.
+	 */
+	public void prepare() throws HillsException {
+		
+		gateway = new HillsGateway(settings.gateway, metrics);
+		payloadLog = new PayloadLog(Settings.toInt(settings.logging.payloadLimit, DEFAULT_PAYLOAD_LIMIT),
+				Settings.toInt(settings.logging.payloadSample, DEFAULT_PAYLOAD_SAMPLE));
+	}
+	
+	/**
+	 * Проверяет настройки без подключения к БД и сервису: загружает драйвер БД,
+	 * расшифровывает пароли, создает HTTP-клиент и почтовый клиент.
+	 * Служит также обучающим запуском для архива AppCDS (профиль appcds),
+	 * так как загружает классы, нужные при обычной работе.
+	 */
+	public void check() throws HillsException {
+		
+		List<Settings> checked = new ArrayList<Settings>();
+		if (hasTenants()) {
+			for (TenantSettings tenantSettings : settings.tenants) {
+				checked.add(settings.forTenant(tenantSettings));
+			}
+		} else {
+			checked.add(settings);
+		}
+		try {
+			Class.forName(JDBC_DRIVER);
+		} catch (ClassNotFoundException e) {
+			throw new HillsException("JDBC driver not found", e);
+		}
+		for (Settings item : checked) {
+			Hills hills = new Hills(item, tenant);
+			hills.dataSourceConfig();
+			if (item.gateway == null) {
+				throw new HillsException("Gateway settings not found in settings file");
+			}
+			hills.prepare();
+			hills.logOff();
+		}
+		HillsOrder.parse("{\"results\":[]}");
+		prepareMailer();
+	}
+	
+	private void prepareMailer() throws HillsException {
 		logMailer = new Mailer();
 		try {
 			logMailer.setSettings(settings.logmail);
 		} catch (EmailException e) {
 			throw new HillsException("Configurate mailer exception");
 		}
+	}
+	
+	/**
+	 * Проверяет подключение к БД и переподключается, если оно было потеряно
+	 */
+	public synchronized void ensureLoggedOn() throws HillsException {
+		if (dataSource == null || dataSource.isClosed()) {
+			log.info("DB connection pool closed, reconnecting");
+			logOn();
+		}
+	}
+	
+	public Settings getSettings() {
+		return settings;
+	}
+	
+	/**
+	 * В настройках заданы потребители (элементы tenant)
+	 */
+	public boolean hasTenants() {
+		return !settings.tenants.isEmpty();
+	}
+	
+	/**
+	 * Выполняет операции всех потребителей одновременно. У каждого потребителя свои пулы
+	 * подключений к БД и HTTP-соединений, ошибка одного потребителя не прерывает остальных.
+	 * @throws HillsException - если операции хотя бы одного потребителя завершились ошибкой
+	 */
+	public void runTenants() throws HillsException {
+		
+		Set<String> names = new HashSet<String>();
+		for (TenantSettings tenantSettings : settings.tenants) {
+			if (tenantSettings.name == null || tenantSettings.name.isEmpty() || !names.add(tenantSettings.name)) {
+				throw new HillsException("Tenant name is empty or not unique in settings file");
+			}
+		}
+		
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		ExecutorService executor = Executors.newFixedThreadPool(settings.tenants.size());
+		try {
+			for (final TenantSettings tenantSettings : settings.tenants) {
+				futures.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						Thread.currentThread().setName("hills-" + tenantSettings.name);
+						return runTenant(tenantSettings);
+					}
+				}));
+			}
+			List<String> failed = new ArrayList<String>();
+			for (int i = 0; i < futures.size(); i++) {
+				if (futures.get(i).get() != null) {
+					failed.add(settings.tenants.get(i).name);
+				}
+			}
+			if (!failed.isEmpty()) {
+				throw new HillsException("Tenants failed: " + String.join(", ", failed));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HillsException("Tenants run interrupted", e);
+		} catch (ExecutionException e) {
+			throw new HillsException("Tenants run exception", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Выполняет операции одного потребителя
+	 * @return null или текст ошибки
+	 */
+	private String runTenant(TenantSettings tenantSettings) {
+		
+		List<String> operations = new ArrayList<String>();
+		for (Operation operation : tenantSettings.operations) {
+			operations.add(operation.value);
+		}
+		if (operations.isEmpty() && settings.operation != null) {
+			operations.add(settings.operation.value);
+		}
+		
+		long start = System.currentTimeMillis();
+		String retVal = null;
+		Hills hills = new Hills(settings.forTenant(tenantSettings), tenantSettings.name);
+		try {
+			hills.prepare();
+			for (String operation : operations) {
+				hills.runOperation(operation);
+			}
+			hills.drainStockFeed();
+		} catch (HillsException | RuntimeException e) {
+			log.error(String.format("Tenant %1$s failed: %2$s", tenantSettings.name, e.getMessage()), e);
+			retVal = String.valueOf(e.getMessage());
+		} finally {
+			try {
+				hills.logOff();
+			} catch (HillsException e) {
+				log.error(String.format("Tenant %1$s log off exception", tenantSettings.name), e);
+			}
+		}
+		log.info(String.format("Tenant %1$s: %2$s %3$s in %4$d ms", tenantSettings.name, 
+				String.join(", ", operations), retVal == null ? "completed" : "FAILED", 
+				System.currentTimeMillis() - start));
+		return retVal;
+	}
+	
+	public Metrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Выполняет операцию загрузки заявок, выгрузки прайс-листа, дозагрузки истории заявок
+	 * или выгрузки остатков и цен по изменениям
+	 * @param operation - download, upload, backfill или feed
+	 */
+	public void runOperation(String operation) throws HillsException {
 		
-		switch (settings.operation.value.toLowerCase()) {
-			case OPERATION_DOWLOAD: 
-				download();
-				break;
-			case OPERATION_UPLOAD: 
-				upload();
-				break;
-			default:
-				throw new HillsException("Unknown operation in settings file");
+		try {
+			switch (operation.toLowerCase()) {
+				case OPERATION_DOWLOAD: 
+					download();
+					break;
+				case OPERATION_UPLOAD: 
+					upload();
+					break;
+				case OPERATION_BACKFILL: 
+					backfill();
+					break;
+				case OPERATION_FEED: 
+					feed();
+					break;
+				default:
+					throw new HillsException("Unknown operation in settings file");
+			}
+			log.info(operation + " HTTP pool: " + gateway.getPoolStats());
+		} finally {
+			exportMetrics();
+		}
+	}
+	
+	/**
+	 * Сохраняет показатели в файл, указанный в настройках
+	 */
+	private void exportMetrics() {
+		if (settings.metrics.file == null || settings.metrics.file.isEmpty()) {
+			return;
+		}
+		try {
+			metrics.export(stateFile(settings.metrics.file, null));
+		} catch (IOException e) {
+			log.error("Write metrics exception", e);
 		}
 	}
 
 	private void download() throws HillsException {
 		
-		String orderList = getOrderList();
-		processOrders(orderList);
-		defineOrderStatus();
+		if (DOWNLOAD_STREAMING.equalsIgnoreCase(settings.download.mode)) {
+			downloadStreaming();
+		} else {
+			OrderSink sink = getOrderSink();
+			OrderPageCache cache = openPageCache();
+			boolean completed = false;
+			try {
+				if (DOWNLOAD_PIPELINED.equalsIgnoreCase(settings.download.mode)) {
+					downloadPipelined(sink, cache);
+				} else {
+					String orderList = getOrderList(cache);
+					Metrics.Timer processTimer = metrics.time(Metrics.PHASE_PROCESS_ORDERS);
+					try {
+						sink.accept(orderList);
+					} finally {
+						processTimer.stop();
+					}
+					completeSink(sink);
+				}
+				completed = true;
+			} finally {
+				closePageCache(cache, completed);
+			}
+		}
+		Metrics.Timer statusTimer = metrics.time(Metrics.PHASE_ORDER_STATUS);
+		try {
+			defineOrderStatus();
+		} finally {
+			statusTimer.stop();
+		}
+	}
+	
+	/**
+	 * Завершает запись заказов: создание документов по всем записанным заказам
+	 */
+	private void completeSink(OrderSink sink) throws HillsException {
+		Metrics.Timer processTimer = metrics.time(Metrics.PHASE_PROCESS_ORDERS);
+		try {
+			sink.complete();
+		} finally {
+			processTimer.stop();
+		}
+	}
+	
+	/**
+	 * Кэш страниц заказов; пустое значение download.cache отключает кэш
+	 */
+	private OrderPageCache openPageCache() throws HillsException {
+		if (settings.download.cache != null && settings.download.cache.isEmpty()) {
+			return null;
+		}
+		try {
+			return new OrderPageCache(stateFile(settings.download.cache, DEFAULT_ORDER_PAGE_CACHE));
+		} catch (IOException e) {
+			throw new HillsException("Open order page cache exception", e);
+		}
+	}
+	
+	/**
+	 * Фиксирует страницы успешной загрузки в кэше или отменяет их, если загрузка прервалась
+	 */
+	private void closePageCache(OrderPageCache cache, boolean completed) {
+		if (cache == null) {
+			return;
+		}
+		if (completed) {
+			try {
+				cache.commit();
+			} catch (IOException e) {
+				log.error("Save order page cache exception", e);
+			}
+		} else {
+			cache.rollback();
+		}
+		log.info(String.format("Order page cache: hits %1$d of %2$d (%3$d%%), not modified %4$d, saved %5$d bytes", 
+				cache.getHits(), cache.getHits() + cache.getMisses(), cache.getHitRate(), 
+				cache.getNotModified(), cache.getBytesSaved()));
+		metrics.increment(Metrics.PAGE_CACHE_HITS, cache.getHits());
+		metrics.increment(Metrics.PAGE_CACHE_MISSES, cache.getMisses());
+		metrics.increment(Metrics.PAGE_CACHE_BYTES_SAVED, cache.getBytesSaved());
+	}
+	
+	/**
+	 * Приемник заказов: plsql - вызов hills.store_orders, jdbc - пакетная запись на стороне Java
+	 */
+	private OrderSink getOrderSink() throws HillsException {
+		if (ORDER_SINK_JDBC.equalsIgnoreCase(settings.download.sink)) {
+			return new OracleOrderSink(dataSource());
+		}
+		return new ProcessOrdersSink(dataSource());
+	}
+	
+	/**
+	 * Загрузка заказов с потоковой записью ответа сервиса непосредственно в CLOB,
+	 * без промежуточного построения списка заказов в памяти
+	 */
+	private void downloadStreaming() throws HillsException {
+		try (Connection dbcon = dataSource().getConnection()) {
+			Clob clob = dbcon.createClob();
+			try {
+				GatewayResult res;
+				Metrics.Timer fetchTimer = metrics.time(Metrics.PHASE_PAGE_FETCH);
+				try (Writer out = clob.setCharacterStream(1)) {
+					res = gateway.orderList(getLastOrderDate(), getTomorrowDate(), out);
+				} finally {
+					fetchTimer.stop();
+				}
+				log.info(res.responseString);
+				if (!res.success) {
+					throw new HillsException("Get orders list exception : " + res.responseString);
+				}
+				metrics.increment(Metrics.ORDERS_DOWNLOADED, res.itemCount);
+				Metrics.Timer processTimer = metrics.time(Metrics.PHASE_PROCESS_ORDERS);
+				try {
+					ProcessOrdersSink sink = new ProcessOrdersSink(dataSource());
+					sink.accept(dbcon, clob);
+					sink.complete();
+				} finally {
+					processTimer.stop();
+				}
+			} finally {
+				clob.free();
+			}
+		} catch (IOException e) {
+			throw new HillsException(e);
+		} catch (SQLException e) {
+			throw new HillsException("Write orders to CLOB exception", e);
+		}
+	}
+	
+	/**
+	 * Конвейерная загрузка заказов: пакеты заказов передаются в приемник
+	 * по мере загрузки, не дожидаясь получения всех страниц.
+	 * Прерванная загрузка продолжается со страницы, сохраненной в отметке; отметка удаляется
+	 * только после создания документов, чтобы при ошибке hills.process_downloaded_orders ее можно было повторить.
+	 */
+	private void downloadPipelined(OrderSink sink, OrderPageCache cache) throws HillsException {
+		
+		DownloadCheckpoint checkpoint = new DownloadCheckpoint(
+				stateFile(settings.download.checkpoint, DEFAULT_DOWNLOAD_CHECKPOINT));
+		String begDate;
+		int firstPage = 1;
+		try {
+			if (checkpoint.load()) {
+				begDate = checkpoint.getBegDate();
+				firstPage = checkpoint.getPage();
+				log.info(String.format("Resuming orders download from %1$s, page %2$d", begDate, firstPage));
+			} else {
+				begDate = getLastOrderDate();
+			}
+		} catch (IOException e) {
+			throw new HillsException("Read download checkpoint exception", e);
+		}
+		
+		OrderPipeline pipeline = new OrderPipeline(gateway, 
+				Settings.toInt(settings.download.batch, 0), 
+				Settings.toInt(settings.download.queue, DEFAULT_PIPELINE_QUEUE), cache);
+		pipeline.run(begDate, getTomorrowDate(), firstPage, sink, checkpoint);
+		completeSink(sink);
+		try {
+			checkpoint.clear();
+		} catch (IOException e) {
+			throw new HillsException("Clear download checkpoint exception", e);
+		}
+	}
+	
+	/**
+	 * Дозагрузка истории заказов за диапазон дат из настроек: диапазон делится на интервалы,
+	 * которые загружаются параллельно; записанные интервалы не загружаются повторно
+	 * при следующем запуске. Статусы заказов не отправляются.
+	 */
+	private void backfill() throws HillsException {
+		
+		if (settings.backfill.from == null || settings.backfill.from.isEmpty()) {
+			throw new HillsException("Backfill start date is not set in settings file");
+		}
+		String endDate = settings.backfill.to != null && !settings.backfill.to.isEmpty() 
+				? settings.backfill.to : getTomorrowDate();
+		int days;
+		if (settings.backfill.slice == null || BACKFILL_SLICE_DAY.equalsIgnoreCase(settings.backfill.slice)) {
+			days = 1;
+		} else if (BACKFILL_SLICE_WEEK.equalsIgnoreCase(settings.backfill.slice)) {
+			days = 7;
+		} else {
+			days = Settings.toInt(settings.backfill.slice, 1);
+		}
+		
+		BackfillProgress progress;
+		try {
+			progress = new BackfillProgress(stateFile(settings.backfill.progress, DEFAULT_BACKFILL_PROGRESS));
+		} catch (IOException e) {
+			throw new HillsException("Read backfill progress exception", e);
+		}
+		OrderSink sink = getOrderSink();
+		try {
+			new OrderBackfill(gateway, sink, 
+					Settings.toInt(settings.backfill.threads, DEFAULT_BACKFILL_THREADS), progress)
+				.run(settings.backfill.from, endDate, days);
+		} finally {
+			try {
+				progress.close();
+			} catch (IOException e) {
+				log.error("Close backfill progress exception", e);
+			}
+		}
+		Metrics.Timer processTimer = metrics.time(Metrics.PHASE_PROCESS_ORDERS);
+		try {
+			sink.complete();
+		} finally {
+			processTimer.stop();
+		}
+		try {
+			progress.clear();
+		} catch (IOException e) {
+			throw new HillsException("Clear backfill progress exception", e);
+		}
 	}
 	
-	private String getOrderList() throws HillsException {
+	private String getOrderList(OrderPageCache cache) throws HillsException {
 		
 		GatewayResult res = null;
+		Metrics.Timer fetchTimer = metrics.time(Metrics.PHASE_PAGE_FETCH);
 		try {
-			res = gateway.orderList(getLastOrderDate(), getTomorrowDate());
-			log.info(res.responseString);
+			res = gateway.orderList(getLastOrderDate(), getTomorrowDate(), cache);
+			payloadLog.log("orders", res.responseString);
 			if (!res.success) {
 				throw new HillsException("Get orders list exception : " + res.responseString);
 			}
+			metrics.increment(Metrics.ORDERS_DOWNLOADED, res.itemCount);
 		} catch (IOException e) {
 			throw new HillsException(e);
-		}				
+		} finally {
+			fetchTimer.stop();
+		}
 		return res.responseString;
 	}
 	
-	private void processOrders(String orderList) throws HillsException {		
-		try {
-			CallableStatement stmt = dbcon.prepareCall("{ call hills.process_orders(?) }");
-			Clob clob = dbcon.createClob();
-			clob.setString(1, orderList);
-			stmt.setClob(1, clob);		
-			stmt.execute();
-			clob.free();
-		} catch (SQLException e) {
-			throw new HillsException("Call process_orders() exception", e);
-		}		
-	}
-	
 	private void defineOrderStatus() throws HillsException {
 		
 		final String qry = "SELECT "
@@ -152,60 +651,189 @@ class Hills {
 				+ "           ho.tradedoc_code, "
 				+ "           ho.status, "
 				+ "           ho.order_number, "
-				+ "           TO_CHAR(ho.shipping_date, 'YYYY-MM-DD') shipping_date "
+				+ "           TO_CHAR(ho.shipping_date, 'YYYY-MM-DD') shipping_date, "
+				+ "           TO_CHAR(ho.date_download, 'YYYY-MM-DD HH24:MI:SS') date_download "
 				+ "         FROM "
-				+ "           evad.hills_orders ho";
+				+ "           evad.hills_orders ho "
+				+ "         WHERE "
+				+ "           ho.tradedoc_status IS NOT NULL";
+		final String incrementalFilter = " "
+				+ "           AND ho.date_download > TO_DATE(?, 'YYYY-MM-DD HH24:MI:SS') - ?";
 		
+		boolean incremental = Boolean.parseBoolean(settings.status.incremental);
+		Watermark watermark = null;
+		String lastDownload = null;
+		if (incremental) {
+			watermark = new Watermark(stateFile(settings.status.watermark, DEFAULT_STATUS_WATERMARK));
+			try {
+				lastDownload = watermark.read();
+			} catch (IOException e) {
+				throw new HillsException("Read status watermark exception", e);
+			}
+		}
+		String maxDownload = lastDownload;
+		
+		StatusJournal journal = openStatusJournal();
+		StatusDispatcher dispatcher = new StatusDispatcher(gateway, 
+				Settings.toInt(settings.status.threads, DEFAULT_STATUS_THREADS), journal);
+		StatusPlanner planner = new StatusPlanner();
+		skippedStatusUpdates = 0;
+		Collection<StatusResult> results;
+		boolean awaited = false;
 		try {
-			Statement stmt = dbcon.createStatement();
-			ResultSet rs = stmt.executeQuery(qry);
-			
-			while(rs.next()) {				
-				String tradedocStatus = rs.getString("tradedoc_status");
-				String orderStatus = rs.getString("status");
-				String orderNumber = rs.getString("order_number"); 
-				String shippingDate = rs.getString("shipping_date");
-				int docCode = rs.getInt("tradedoc_code");
-				
-				if (tradedocStatus == null) {
-					continue;
+			try (Connection dbcon = dataSource().getConnection();
+					PreparedStatement stmt = dbcon.prepareStatement(lastDownload != null ? qry + incrementalFilter : qry)) {
+				stmt.setFetchSize(Settings.toInt(settings.status.fetchSize, DEFAULT_FETCH_SIZE));
+				if (lastDownload != null) {
+					stmt.setString(1, lastDownload);
+					stmt.setInt(2, Settings.toInt(settings.status.lookback, DEFAULT_STATUS_LOOKBACK));
 				}
 				
-				if (tradedocStatus.equals("registed")) {
-					orderStatusUpdate("done", orderNumber, shippingDate);
-				} else if (tradedocStatus.equals("not_exists")) { 
-					orderStatusUpdate("cancelled", orderNumber, shippingDate);
-					if (docCode == -1) {
-						log.info("Error creating document!");					
+				try (ResultSet rs = stmt.executeQuery()) {
+					while(rs.next()) {				
+						String tradedocStatus = rs.getString("tradedoc_status");
+						String orderStatus = rs.getString("status");
+						String orderNumber = rs.getString("order_number"); 
+						String shippingDate = rs.getString("shipping_date");
+						String dateDownload = rs.getString("date_download");
+						int docCode = rs.getInt("tradedoc_code");
+						
+						if (dateDownload != null && (maxDownload == null || dateDownload.compareTo(maxDownload) > 0)) {
+							maxDownload = dateDownload;
+						}
+						
+						if (tradedocStatus.equals("registed")) {
+							orderStatusUpdate(dispatcher, planner, journal, orderNumber, orderStatus, shippingDate, 
+									StatusPlanner.DONE);
+						} else if (tradedocStatus.equals("not_exists")) { 
+							orderStatusUpdate(dispatcher, planner, journal, orderNumber, orderStatus, shippingDate, 
+									StatusPlanner.CANCELLED);
+							if (docCode == -1) {
+								log.info("Error creating document!");					
+							}
+						} else if (StatusPlanner.CREATED.equals(orderStatus)) {
+							orderStatusUpdate(dispatcher, planner, journal, orderNumber, orderStatus, shippingDate, 
+									StatusPlanner.AWAITING_DELIVERY);
+						}
 					}
-				} else if (orderStatus.equals("created")) 
-					orderStatusUpdate("done", orderNumber, shippingDate);
-					orderStatusUpdate("awaiting_delivery", orderNumber, shippingDate);
 				}
-		} catch (SQLException e) {
-			throw new HillsException("Select from hills_orders exception", e);
-		} 
+			} catch (SQLException e) {
+				throw new HillsException("Select from hills_orders exception", e);
+			}
+			awaited = true;
+			results = dispatcher.await();
+		} finally {
+			/* при ошибке дожидаемся уже поставленных отправок, чтобы они попали в журнал, и освобождаем потоки */
+			if (!awaited) {
+				try {
+					dispatcher.await();
+				} catch (HillsException e) {
+					log.error("Orders status changing exception", e);
+				}
+			}
+			closeStatusJournal(journal);
+		}
+		
+		int failed = 0;
+		int rejected = 0;
+		for (StatusResult result : results) {
+			if (result.isRejected()) {
+				failed++;
+				rejected++;
+				log.error(String.format("Orders status change rejected, order will not be retried "
+						+ "[orderNumber, status, error] in [%1$s, %2$s, %3$s]", 
+						result.orderNumber, result.failedStatus, result.error));
+			} else if (!result.isSuccess()) {
+				failed++;
+				log.error(String.format("Orders status changing exception [orderNumber, status, error] in [%1$s, %2$s, %3$s]", 
+						result.orderNumber, result.failedStatus, result.error));
+			}
+		}
+		log.info(String.format("Orders status changed: %1$d, failed: %2$d, skipped: %3$d, calls planned: %4$d, avoided: %5$d", 
+				results.size() - failed, failed, skippedStatusUpdates, planner.getPlanned(), planner.getAvoided()));
+		metrics.increment(Metrics.STATUS_UPDATES_SENT, results.size() - failed);
+		metrics.increment(Metrics.STATUS_UPDATES_FAILED, failed);
+		metrics.increment(Metrics.STATUS_UPDATES_SKIPPED, skippedStatusUpdates);
+		metrics.increment(Metrics.STATUS_CALLS_PLANNED, planner.getPlanned());
+		metrics.increment(Metrics.STATUS_CALLS_AVOIDED, planner.getAvoided());
+		
+		/* отклоненные сервисом изменения не задерживают отметку: иначе окно выборки растет с каждым запуском */
+		if (incremental && failed == rejected && maxDownload != null) {
+			try {
+				watermark.write(maxDownload);
+			} catch (IOException e) {
+				throw new HillsException("Write status watermark exception", e);
+			}
+		} else if (incremental && failed > rejected) {
+			log.info(String.format("Status watermark is kept: %1$d orders failed with temporary errors", failed - rejected));
+		}
 	}
 	
-	private void orderStatusUpdate(String newStatus, String orderNumber, String shippingDate) throws HillsException {
-		try {
-			log.info(String.format("[newStatus, orderNumber, shippingDate] in [%1$s, %2$s, %3$s]", 
-					newStatus, orderNumber, shippingDate));
-			GatewayResult res = gateway.ordersPartialUpdate(orderNumber, shippingDate, newStatus);
-			log.info(res.responseString);
-			if (!res.success) {
-				throw new HillsException("Orders status changing exception");
+	/**
+	 * Ставит в очередь отправки кратчайшую допустимую последовательность статусов, переводящую заказ в целевой статус.
+	 * Текущим статусом заказа считается последний отправленный по журналу с той же датой доставки,
+	 * если он дальше по жизненному циклу, чем статус, полученный с сервиса при загрузке заказа,
+	 * иначе - полученный с сервиса: если прошлый запуск прервался посреди последовательности, отправляется ее остаток.
+	 * Если заказ уже в целевом статусе, а по журналу отправлялась другая дата доставки, отправляется только дата.
+	 * Без журнала дата не отправляется: hills.store_orders не меняет дату доставки загруженного заказа,
+	 * поэтому она совпадает с полученной с сервиса.
+	 * Заказ пропускается, если статус и дата доставки не изменились или сервис не допускает перехода в целевой статус.
+	 * @param dispatcher - очередь отправки
+	 * @param planner - планировщик смены статусов
+	 * @param journal - журнал отправленных статусов (может отсутствовать)
+	 * @param orderNumber - номер заказа
+	 * @param orderStatus - статус заказа при загрузке
+	 * @param shippingDate - дата доставки
+	 * @param targetStatus - целевой статус
+	 */
+	void orderStatusUpdate(StatusDispatcher dispatcher, StatusPlanner planner, StatusJournal journal, 
+			String orderNumber, String orderStatus, String shippingDate, String targetStatus) {
+		String pushed = journal != null ? journal.lastPushed(orderNumber, shippingDate) : null;
+		String currentStatus = StatusPlanner.current(pushed, orderStatus);
+		if (targetStatus.equals(currentStatus) && shippingDate != null 
+				&& journal != null && journal.isShippingDateChanged(orderNumber, shippingDate)) {
+			planner.planShippingDate();
+			dispatcher.submitShippingDate(orderNumber, shippingDate, targetStatus);
+			return;
+		}
+		List<String> statuses = planner.plan(currentStatus, targetStatus);
+		if (statuses.isEmpty()) {
+			if (!targetStatus.equals(currentStatus)) {
+				log.info(String.format("Status transition is not allowed [orderNumber, status, newStatus] in [%1$s, %2$s, %3$s]", 
+						orderNumber, currentStatus, targetStatus));
 			}
-		} catch (Exception e) {
-			throw new HillsException(e.getMessage(), e);
+			skippedStatusUpdates++;
+			return;
+		}
+		dispatcher.submit(orderNumber, shippingDate, statuses.toArray(new String[statuses.size()]));
+	}
+	
+	private StatusJournal openStatusJournal() throws HillsException {
+		if (settings.status.journal != null && settings.status.journal.isEmpty()) {
+			return null;
+		}
+		try {
+			return new StatusJournal(stateFile(settings.status.journal, DEFAULT_STATUS_JOURNAL));
+		} catch (IOException e) {
+			throw new HillsException("Open status journal exception", e);
+		}
+	}
+	
+	private void closeStatusJournal(StatusJournal journal) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.close();
+		} catch (IOException e) {
+			log.error("Close status journal exception", e);
 		}
 	}
 	
 	private String getLastOrderDate() throws HillsException {
 		String retVal = null;
-		try {
-			CallableStatement stmt = null;
-			stmt = dbcon.prepareCall("{ ? = call hills.get_last_order_date }");
+		try (Connection dbcon = dataSource().getConnection();
+				CallableStatement stmt = dbcon.prepareCall("{ ? = call hills.get_last_order_date }")) {
 			stmt.registerOutParameter(1, Types.VARCHAR);
 			stmt.execute();
 			retVal = stmt.getString(1);
@@ -216,18 +844,259 @@ class Hills {
 	}
 	
 	private void upload() throws HillsException {
-		String priceList = getPriceList();
-		stockRecordsCreate(priceList);
+		boolean delta = Boolean.parseBoolean(settings.upload.delta);
+		int chunkSize = Settings.toInt(settings.upload.chunk, 0);
+		boolean jdbcSource = UPLOAD_SOURCE_JDBC.equalsIgnoreCase(settings.upload.source);
+		if (!delta && chunkSize <= 0) {
+			if (jdbcSource) {
+				Metrics.Timer uploadTimer = metrics.time(Metrics.PHASE_UPLOAD);
+				try {
+					uploadJdbcStreaming();
+				} finally {
+					uploadTimer.stop();
+				}
+			} else if (Boolean.parseBoolean(settings.upload.streaming)) {
+				Metrics.Timer uploadTimer = metrics.time(Metrics.PHASE_UPLOAD);
+				try {
+					uploadStreaming();
+				} finally {
+					uploadTimer.stop();
+				}
+			} else {
+				String priceList;
+				Metrics.Timer priceListTimer = metrics.time(Metrics.PHASE_PRICE_LIST);
+				try {
+					priceList = getPriceList();
+				} finally {
+					priceListTimer.stop();
+				}
+				Metrics.Timer uploadTimer = metrics.time(Metrics.PHASE_UPLOAD);
+				try {
+					stockRecordsCreate(priceList);
+				} finally {
+					uploadTimer.stop();
+				}
+			}
+			return;
+		}
+		
+		List<StockRecord> current;
+		Metrics.Timer priceListTimer = metrics.time(Metrics.PHASE_PRICE_LIST);
+		try {
+			if (jdbcSource) {
+				current = getJdbcPriceList().read();
+			} else {
+				current = StockRecord.parse(getPriceList());
+			}
+		} catch (SQLException e) {
+			throw new HillsException("Select price list exception", e);
+		} finally {
+			priceListTimer.stop();
+		}
+		Metrics.Timer uploadTimer = metrics.time(Metrics.PHASE_UPLOAD);
+		try {
+			if (delta) {
+				uploadDelta(current);
+			} else if (uploadRecords(current).size() < current.size()) {
+				throw new HillsException("Send price list exception : not all chunks uploaded");
+			}
+		} finally {
+			uploadTimer.stop();
+		}
+	}
+	
+	/**
+	 * Выгрузка остатков и цен по изменениям: опрос источника и выгрузка позиций,
+	 * окно объединения изменений которых истекло. Ожидающие позиции сохраняются между вызовами,
+	 * в режиме постоянной работы опрос выполняется по расписанию (daemon feed).
+	 */
+	private void feed() throws HillsException {
+		
+		if (stockFeed == null) {
+			StockSnapshot snapshot;
+			try {
+				snapshot = new StockSnapshot(stateFile(settings.feed.snapshot, DEFAULT_FEED_SNAPSHOT));
+			} catch (IOException e) {
+				throw new HillsException("Read stock snapshot exception", e);
+			}
+			stockFeed = new StockFeed(
+					new JdbcStockSource(dataSource(), priceFormCode(), Settings.toInt(settings.upload.fetchSize, DEFAULT_FETCH_SIZE)),
+					gateway, snapshot, new Watermark(stateFile(settings.feed.watermark, DEFAULT_FEED_WATERMARK)),
+					TimeUnit.SECONDS.toMillis(Settings.toInt(settings.feed.window, DEFAULT_FEED_WINDOW)),
+					Settings.toInt(settings.feed.batch, DEFAULT_FEED_BATCH),
+					Boolean.parseBoolean(settings.upload.gzip),
+					Settings.toInt(settings.feed.rescan, DEFAULT_FEED_RESCAN));
+		}
+		Metrics.Timer priceListTimer = metrics.time(Metrics.PHASE_PRICE_LIST);
+		try {
+			stockFeed.poll();
+		} finally {
+			priceListTimer.stop();
+		}
+		Metrics.Timer uploadTimer = metrics.time(Metrics.PHASE_UPLOAD);
+		try {
+			stockFeed.flush(false);
+		} finally {
+			uploadTimer.stop();
+		}
+	}
+	
+	/**
+	 * Выгружает все ожидающие позиции выгрузки по изменениям, не дожидаясь окончания окна
+	 * (при завершении работы)
+	 */
+	public void drainStockFeed() throws HillsException {
+		if (stockFeed == null || stockFeed.getPending() == 0) {
+			return;
+		}
+		Metrics.Timer uploadTimer = metrics.time(Metrics.PHASE_UPLOAD);
+		try {
+			stockFeed.flush(true);
+		} finally {
+			uploadTimer.stop();
+		}
+	}
+	
+	/**
+	 * Выгрузка только тех позиций прайс-листа, цена или количество которых изменились
+	 * с момента последней успешной выгрузки. Периодически выполняется полная выгрузка.
+	 * @param current - полный прайс-лист
+	 */
+	private void uploadDelta(List<StockRecord> current) throws HillsException {
+		
+		StockSnapshot snapshot;
+		try {
+			snapshot = new StockSnapshot(stateFile(settings.upload.snapshot, DEFAULT_STOCK_SNAPSHOT));
+		} catch (IOException e) {
+			throw new HillsException("Read stock snapshot exception", e);
+		}
+		
+		boolean full = snapshot.isResyncDue(Settings.toInt(settings.upload.resync, DEFAULT_STOCK_RESYNC));
+		List<StockRecord> changed = full ? current : snapshot.changed(current);
+		log.info(String.format("Stock records: %1$d, to upload: %2$d, full resync: %3$b", 
+				current.size(), changed.size(), full));
+		
+		if (changed.isEmpty()) {
+			return;
+		}
+		List<StockRecord> uploaded = uploadRecords(changed);
+		
+		try {
+			snapshot.save(uploaded, full && uploaded.size() == changed.size());
+		} catch (IOException e) {
+			throw new HillsException("Write stock snapshot exception", e);
+		}
+		if (uploaded.size() < changed.size()) {
+			throw new HillsException("Send price list exception : not all chunks uploaded");
+		}
+	}
+	
+	/**
+	 * Выгрузка записей прайс-листа одним запросом или частями, если задан размер части
+	 * @param records - записи прайс-листа
+	 * @return успешно выгруженные записи
+	 */
+	private List<StockRecord> uploadRecords(List<StockRecord> records) throws HillsException {
+		
+		int chunkSize = Settings.toInt(settings.upload.chunk, 0);
+		if (chunkSize <= 0) {
+			stockRecordsCreate(StockRecord.toJson(records));
+			metrics.increment(Metrics.SKUS_UPLOADED, records.size());
+			return records;
+		}
+		
+		StockUploader uploader = new StockUploader(gateway, chunkSize, 
+				Settings.toInt(settings.upload.threads, DEFAULT_UPLOAD_THREADS),
+				gateway.retryPolicy(Settings.toInt(settings.upload.retries, DEFAULT_UPLOAD_RETRIES)),
+				Boolean.parseBoolean(settings.upload.gzip));
+		List<StockRecord> uploaded = uploader.upload(records);
+		metrics.increment(Metrics.SKUS_UPLOADED, uploaded.size());
+		return uploaded;
+	}
+	
+	/**
+	 * Потоковая выгрузка прайс-листа: символьный поток CLOB, возвращенного get_upload_request(),
+	 * передается непосредственно в тело HTTP-запроса
+	 */
+	private void uploadStreaming() throws HillsException {
+		try (Connection dbcon = dataSource().getConnection();
+				CallableStatement stmt = dbcon.prepareCall("{ call ? := hills.get_upload_request() }")) {
+			stmt.registerOutParameter(1, Types.CLOB);
+			stmt.execute();
+			Clob clob = stmt.getClob(1);
+			try {
+				log.info("request = CLOB, length " + clob.length());
+				GatewayResult res = gateway.stockRecordsCreate(clob.getCharacterStream(), 
+						Boolean.parseBoolean(settings.upload.gzip));
+				payloadLog.log("response", res.responseString);
+				if (!res.success) {
+					throw new HillsException("Send price list exception : " + res.responseString);
+				}
+			} finally {
+				clob.free();
+			}
+		} catch (SQLException e) {
+			throw new HillsException("Call get_upload_request() exception", e);
+		} catch (IOException e) {
+			throw new HillsException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Потоковая выгрузка прайс-листа, формируемого на стороне Java:
+	 * строки запроса по ценам и остаткам записываются в тело HTTP-запроса по мере чтения из БД
+	 */
+	private void uploadJdbcStreaming() throws HillsException {
+		final JdbcPriceList priceList = getJdbcPriceList();
+		final int[] records = new int[1];
+		try {
+			GatewayResult res = gateway.stockRecordsCreate(new ContentProducer() {
+				@Override
+				public void writeTo(OutputStream stream) throws IOException {
+					Writer out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+					try {
+						records[0] = priceList.writeTo(out);
+						out.flush();
+						log.info("request = JDBC, records " + records[0]);
+					} catch (SQLException e) {
+						throw new IOException("Select price list exception", e);
+					}
+				}
+			}, Boolean.parseBoolean(settings.upload.gzip));
+			payloadLog.log("response", res.responseString);
+			if (!res.success) {
+				throw new HillsException("Send price list exception : " + res.responseString);
+			}
+			metrics.increment(Metrics.SKUS_UPLOADED, records[0]);
+		} catch (IOException e) {
+			throw new HillsException(e.getMessage(), e);
+		}
+	}
+	
+	private JdbcPriceList getJdbcPriceList() throws HillsException {
+		return new JdbcPriceList(dataSource(), priceFormCode(), Settings.toInt(settings.upload.fetchSize, DEFAULT_FETCH_SIZE));
+	}
+	
+	private int priceFormCode() throws HillsException {
+		Integer priceFormCode = settings.upload.priceForm != null 
+				? Integer.valueOf(Settings.toInt(settings.upload.priceForm, 0)) 
+				: JdbcPriceList.priceFormCode(settings.db.name);
+		if (priceFormCode == null) {
+			throw new HillsException("Unknown price form code for database " + settings.db.name);
+		}
+		return priceFormCode;
 	}
 	
 	private String getPriceList() throws HillsException {
 		String retVal = null;
-		try {
-			Clob clob = dbcon.createClob();
-			CallableStatement stmt = dbcon.prepareCall("{ call ? := hills.get_upload_request() }");
+		try (Connection dbcon = dataSource().getConnection();
+				CallableStatement stmt = dbcon.prepareCall("{ call ? := hills.get_upload_request() }")) {
 			stmt.registerOutParameter(1, Types.CLOB);
 			stmt.execute();
-			clob = stmt.getClob(1);
+			Clob clob = stmt.getClob(1);
+			if (clob.length() > Integer.MAX_VALUE) {
+				throw new HillsException("Price list is too large to be read into memory, use streaming upload");
+			}
 			retVal = clob.getSubString(1, (int) clob.length());
 			clob.free();
 		} catch (SQLException e) {
@@ -238,9 +1107,9 @@ class Hills {
 	
 	private void stockRecordsCreate(String request) throws HillsException {
 		try {
-			log.info("request = " + request);
+			payloadLog.log("request", request);
 			GatewayResult res = gateway.stockRecordsCreate(request);			
-			log.info("response = " +  res.responseString);
+			payloadLog.log("response", res.responseString);
 			if (!res.success) {
 				throw new HillsException("Send price list exception : " + res.responseString);
 			}
@@ -256,6 +1125,20 @@ class Hills {
 		return encryptor.decrypt(pass);
 	}
 	
+	/**
+	 * Файл состояния (отметки, журналы, показатели). Для потребителя к имени файла
+	 * добавляется имя потребителя, чтобы потребители не использовали одни и те же файлы.
+	 * @param configured - файл из настроек
+	 * @param defaultName - файл по умолчанию, если в настройках не задан
+	 */
+	private File stateFile(String configured, String defaultName) {
+		File retVal = new File(configured != null ? configured : defaultName);
+		if (tenant == null) {
+			return retVal;
+		}
+		return new File(retVal.getParentFile(), tenant + "-" + retVal.getName());
+	}
+	
 	private String getTomorrowDate() {
 		
 		SimpleDateFormat formattedDate = new SimpleDateFormat("yyyy-MM-dd");            
@@ -271,15 +1154,71 @@ class Hills {
 	 */
 	public void sendLog(String subjSuffix) {
 		
-		FileAppender<?> fa = (FileAppender<?>) ((ch.qos.logback.classic.Logger) log).getAppender("file");
-		String fileName = fa.getFile();
+		ch.qos.logback.classic.Logger logger = (ch.qos.logback.classic.Logger) log;
+		Appender<ILoggingEvent> appender = logger.getAppender("asyncFile");
 		try {
-			logMailer.addAttachment(new File(fileName));
+			File attachment;
+			if (appender instanceof AsyncAppender) {
+				AsyncAppender async = (AsyncAppender) appender;
+				FileAppender<ILoggingEvent> fa = (FileAppender<ILoggingEvent>) async.getAppender("file");
+				/* Остановка асинхронного журнала дописывает в файл сообщения из очереди */
+				async.stop();
+				try {
+					attachment = gzip(new File(fa.getFile()));
+				} finally {
+					restartAsyncLog(logger, async, fa);
+				}
+			} else {
+				attachment = gzip(new File(((FileAppender<?>) logger.getAppender("file")).getFile()));
+			}
+			if (logMailer == null) {
+				prepareMailer();
+			}
+			logMailer.addAttachment(attachment);
 			logMailer.send(subjSuffix);
-		} catch (EmailException e) {
+		} catch (EmailException | IOException | HillsException e) {
 			log.error("Send mail exception", e);
 		}
 	}
+	
+	/**
+	 * Возобновляет асинхронную запись лога после остановки: остановленный AsyncAppender
+	 * не может быть запущен повторно, поэтому создается новый с теми же параметрами,
+	 * файл лога дописывается
+	 * @param logger - логгер, к которому подключен журнал
+	 * @param stopped - остановленный асинхронный журнал
+	 * @param file - файловый журнал, остановленный вместе с ним
+	 */
+	private static void restartAsyncLog(ch.qos.logback.classic.Logger logger, AsyncAppender stopped, 
+			FileAppender<ILoggingEvent> file) {
+		file.setAppend(true);
+		file.start();
+		AsyncAppender async = new AsyncAppender();
+		async.setContext(stopped.getContext());
+		async.setName(stopped.getName());
+		async.setQueueSize(stopped.getQueueSize());
+		async.setDiscardingThreshold(stopped.getDiscardingThreshold());
+		async.setNeverBlock(stopped.isNeverBlock());
+		async.setMaxFlushTime(stopped.getMaxFlushTime());
+		async.addAppender(file);
+		async.start();
+		logger.addAppender(async);
+		logger.detachAppender(stopped);
+	}
+	
+	/**
+	 * Сжимает файл лога для отправки по почте
+	 * @param file - файл лога
+	 * @return сжатый файл рядом с исходным (*.gz)
+	 * @throws IOException
+	 */
+	private static File gzip(File file) throws IOException {
+		File retVal = new File(file.getPath() + ".gz");
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(retVal))) {
+			Files.copy(file.toPath(), out);
+		}
+		return retVal;
+	}
 }
 
 
@@ -0,0 +1,170 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Режим постоянной работы: выгрузка прайс-листа, выгрузка остатков и цен по изменениям
+ * и загрузка заказов выполняются по расписанию в одном процессе, подключение к БД
+ * и HTTP-клиент создаются один раз. При остановке ожидающие изменения выгружаются.
+ * Каждая операция запускается с фиксированной паузой после завершения предыдущего запуска,
+ * поэтому запуски одной операции не перекрываются.
+ * Если задан порт показателей, они отдаются по HTTP: /metrics (Prometheus) и /metrics.json.
+ *
+ */
+class HillsDaemon {
+
+	private static final Logger log = LoggerFactory.getLogger("ru.evenx.logback");
+
+	private final String OPERATION_DOWLOAD = "download";
+	private final String OPERATION_UPLOAD = "upload";
+	private final String OPERATION_FEED = "feed";
+	private final int DEFAULT_SHUTDOWN_TIMEOUT = 600;
+
+	private final Hills hills;
+	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private final CountDownLatch released = new CountDownLatch(1);
+	private HttpServer metricsServer = null;
+
+	/**
+	 * @param hills - подключенный к БД и подготовленный экземпляр Hills
+	 */
+	public HillsDaemon(Hills hills) {
+		this.hills = hills;
+	}
+
+	/**
+	 * Запускает операции по расписанию и ожидает остановки процесса
+	 * (по сигналу завершения JVM). После возврата вызывающий поток должен освободить ресурсы
+	 * и вызвать {@link #release()}.
+	 * @throws HillsException
+	 */
+	public void run() throws HillsException {
+
+		DaemonSettings settings = hills.getSettings().daemon;
+		int uploadInterval = Settings.toInt(settings.upload, 0);
+		int downloadInterval = Settings.toInt(settings.download, 0);
+		int feedInterval = Settings.toInt(settings.feed, 0);
+		if (uploadInterval <= 0 && downloadInterval <= 0 && feedInterval <= 0) {
+			throw new HillsException("No daemon operations configured in settings file");
+		}
+
+		final int shutdownTimeout = Settings.toInt(settings.shutdownTimeout, DEFAULT_SHUTDOWN_TIMEOUT);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stop(shutdownTimeout);
+			}
+		}, "hills-shutdown"));
+
+		int metricsPort = Settings.toInt(hills.getSettings().metrics.port, 0);
+		if (metricsPort > 0) {
+			startMetricsServer(metricsPort);
+		}
+		if (uploadInterval > 0) {
+			schedule(OPERATION_UPLOAD, uploadInterval);
+		}
+		if (downloadInterval > 0) {
+			schedule(OPERATION_DOWLOAD, downloadInterval);
+		}
+		if (feedInterval > 0) {
+			schedule(OPERATION_FEED, feedInterval);
+		}
+
+		try {
+			stopped.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Сообщает процессу остановки, что ресурсы освобождены и JVM может завершиться
+	 */
+	public void release() {
+		released.countDown();
+	}
+
+	private void schedule(final String operation, int interval) {
+		log.info(String.format("Scheduling %1$s every %2$d s", operation, interval));
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.currentTimeMillis();
+				try {
+					hills.ensureLoggedOn();
+					hills.runOperation(operation);
+					log.info(String.format("%1$s completed in %2$d ms", operation, System.currentTimeMillis() - start));
+				} catch (Throwable e) {
+					log.error(operation + " failed: " + e.getMessage(), e);
+				}
+			}
+		}, 0, interval, TimeUnit.SECONDS);
+	}
+
+	private void startMetricsServer(int port) throws HillsException {
+		try {
+			metricsServer = HttpServer.create(new InetSocketAddress(port), 0);
+		} catch (IOException e) {
+			throw new HillsException("Start metrics server exception", e);
+		}
+		metricsServer.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				boolean json = exchange.getRequestURI().getPath().endsWith(".json");
+				Metrics metrics = hills.getMetrics();
+				byte[] body = (json ? metrics.toJson() : metrics.toPrometheus()).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", 
+						json ? "application/json; charset=utf-8" : "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		metricsServer.start();
+		log.info("Metrics available on port " + port);
+	}
+
+	private void stop(int shutdownTimeout) {
+		log.info("Stopping daemon");
+		if (metricsServer != null) {
+			metricsServer.stop(0);
+		}
+		scheduler.shutdown();
+		try {
+			if (!scheduler.awaitTermination(shutdownTimeout, TimeUnit.SECONDS)) {
+				log.error("Operations did not complete in time, interrupting");
+				scheduler.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			scheduler.shutdownNow();
+		}
+		try {
+			hills.drainStockFeed();
+		} catch (Throwable e) {
+			log.error("Stock feed drain failed: " + e.getMessage(), e);
+		}
+		stopped.countDown();
+
+		try {
+			released.await(shutdownTimeout, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,25 +1,38 @@
 package ru.evenx.hills;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
-import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Результат доступа к API Hills
@@ -29,6 +42,9 @@ class GatewayResult {
 	public boolean success;
 	public int responseCode;
 	public String responseString;
+	public int itemCount;
+	/* Страница заказов не изменилась с прошлой загрузки ({@link OrderPageCache}) */
+	public boolean notModified;
 }
 
 /**
@@ -40,28 +56,80 @@ class HillsGateway {
 	private final String contentTypeHeader = "application/json;charset=UTF-8";
 	private final String apiOrders = "/distributors_api/v3/orders/";
 	private final String apiCreateRecords = "/distributors_api/v3/stock_records/";
-	private final long CONNECTION_TIMEOUT = 30;
 	private final int HTTP_OK = 200;
 	private final int HTTP_CREATED = 201;
+	private final int HTTP_NOT_MODIFIED = 304;
+	private final int DEFAULT_THREADS = 4;
+	private final int BUFFER_SIZE = 8192;
+	private final int DEFAULT_RETRIES = 3;
+	private final int DEFAULT_RETRY_DELAY = 500;
+	private final int DEFAULT_RETRY_MAX_DELAY = 30000;
 	
 	private GatewaySettings settings = null;
-	private HttpClient client = null;
+	private HttpTransport transport = null;
+	private CloseableHttpClient client = null;
+	private int threads;
+	private Metrics metrics;
+	private RetryPolicy retryPolicy;
 	
 	public HillsGateway(GatewaySettings settings) {
+		this(settings, new Metrics());
+	}
+	
+	/**
+	 * @param settings - настройки шлюза
+	 * @param metrics - показатели, в которые записываются HTTP-запросы
+	 */
+	public HillsGateway(GatewaySettings settings, Metrics metrics) {
 		
 		this.settings = settings;
+		this.metrics = metrics;
+		this.retryPolicy = new RetryPolicy(Settings.toInt(settings.retries, DEFAULT_RETRIES),
+				Settings.toInt(settings.retryDelay, DEFAULT_RETRY_DELAY),
+				Settings.toInt(settings.retryMaxDelay, DEFAULT_RETRY_MAX_DELAY));
+		this.threads = Settings.toInt(settings.threads, DEFAULT_THREADS);
 		
 		List<Header> headers = new ArrayList<Header>();
 		headers.add(new BasicHeader(HttpHeaders.CONTENT_TYPE, contentTypeHeader));
 		headers.add(new BasicHeader(HttpHeaders.AUTHORIZATION, "Token " + this.settings.token));
-		client = HttpClients.custom()
-				            .setDefaultHeaders(headers)
-				            .setConnectionTimeToLive(CONNECTION_TIMEOUT, TimeUnit.SECONDS)
-				            .build();
+		transport = new HttpTransport(settings, headers, threads, metrics);
+		client = transport.getClient();
+	}
+	
+	/**
+	 * Показатели HTTP-запросов шлюза
+	 */
+	public Metrics getMetrics() {
+		return metrics;
 	}
 	
 	/**
-	 * Получение порции (страницы) заказов на доставку
+	 * Политика повторов с паузами из настроек шлюза и заданным количеством повторов
+	 * @param retries - количество повторов
+	 */
+	public RetryPolicy retryPolicy(int retries) {
+		return new RetryPolicy(retries, Settings.toInt(settings.retryDelay, DEFAULT_RETRY_DELAY),
+				Settings.toInt(settings.retryMaxDelay, DEFAULT_RETRY_MAX_DELAY));
+	}
+	
+	/**
+	 * Текущее использование пула HTTP-соединений
+	 */
+	public PoolStats getPoolStats() {
+		return transport.getPoolStats();
+	}
+	
+	/**
+	 * Закрывает HTTP-соединения
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		transport.close();
+	}
+	
+	/**
+	 * Получение порции (страницы) заказов на доставку.
+	 * При временных ошибках запрос повторяется согласно {@link RetryPolicy}.
 	 * @param page - номер страницы
 	 * @param begDate - начальная дата заказов ("YYYY-MM-DD")
 	 * @param endDate - конечная дата заказов ("YYYY-MM-DD")
@@ -69,22 +137,74 @@ class HillsGateway {
 	 * @throws IOException 
 	 * @throws ClientProtocolException 
 	 */
-	private GatewayResult orderListPaged(String page, String begDate, String endDate) throws ClientProtocolException, IOException {
-		
-		HttpUriRequest request = RequestBuilder.get()
-				.setUri(settings.url + apiOrders)
-				.addParameter("page", page)
-				.addParameter("later_than", begDate)
-				.addParameter("earlier_than", endDate)
-				.build();
-		HttpResponse response = client.execute(request);
-
-	    GatewayResult retVal = new GatewayResult();
-	    retVal.responseCode = response.getStatusLine().getStatusCode();
-        retVal.success = (retVal.responseCode == HTTP_OK);
-        retVal.responseString = EntityUtils.toString(response.getEntity());
+	GatewayResult orderListPaged(String page, String begDate, String endDate) throws ClientProtocolException, IOException {
+		return orderListPaged(page, begDate, endDate, null);
+	}
+	
+	/**
+	 * Получение порции (страницы) заказов на доставку с использованием кэша страниц.
+	 * Если страница с тем же адресом есть в кэше, запрос отправляется с заголовками If-None-Match и If-Modified-Since;
+	 * при ответе 304 или совпадении полученной страницы с сохраненной в результате устанавливается notModified.
+	 * @param page - номер страницы
+	 * @param begDate - начальная дата заказов ("YYYY-MM-DD")
+	 * @param endDate - конечная дата заказов ("YYYY-MM-DD")
+	 * @param cache - кэш страниц (может отсутствовать)
+	 * @return результат обращения к сервису (содержит список заказов (JSON))
+	 * @throws IOException 
+	 * @throws ClientProtocolException 
+	 */
+	GatewayResult orderListPaged(String page, String begDate, String endDate, OrderPageCache cache) 
+			throws ClientProtocolException, IOException {
 		
-		return retVal;	
+		String url = getOrderPageRequest(page, begDate, endDate).getURI().toString();
+		OrderPageCache.Entry cached = cache != null ? cache.lookup(page) : null;
+		/* ETag и Last-Modified относятся к адресу; страница с другим диапазоном дат сравнивается только по хэшу */
+		boolean conditional = cached != null && url.equals(cached.url);
+		for (int attempt = 0; ; attempt++) {
+			HttpUriRequest request = getOrderPageRequest(page, begDate, endDate);
+			if (conditional && cached.etag != null) {
+				request.setHeader(HttpHeaders.IF_NONE_MATCH, cached.etag);
+			}
+			if (conditional && cached.lastModified != null) {
+				request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+			}
+			try (CloseableHttpResponse response = client.execute(request)) {
+			    GatewayResult retVal = new GatewayResult();
+			    retVal.responseCode = response.getStatusLine().getStatusCode();
+			    if (retVal.responseCode == HTTP_NOT_MODIFIED && conditional) {
+			    	EntityUtils.consume(response.getEntity());
+			    	retVal.success = true;
+			    	retVal.notModified = true;
+			    	retVal.responseString = cache.notModified(cached);
+			    	return retVal;
+			    }
+		        retVal.success = (retVal.responseCode == HTTP_OK);
+		        retVal.responseString = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+		        if (retVal.success && cache != null) {
+		        	retVal.notModified = cache.store(page, url, cached, headerValue(response, HttpHeaders.ETAG), 
+		        			headerValue(response, HttpHeaders.LAST_MODIFIED), retVal.responseString);
+		        }
+				
+		        if (retVal.success || !retryPolicy.shouldRetry(attempt, retVal.responseCode)) {
+		        	return retVal;
+		        }
+			} catch (IOException e) {
+				if (!retryPolicy.shouldRetry(attempt, e)) {
+					throw e;
+				}
+			}
+			retry(attempt);
+		}
+	}
+	
+	private static String headerValue(CloseableHttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		return header != null ? header.getValue() : null;
+	}
+	
+	private void retry(int attempt) throws IOException {
+		metrics.increment(Metrics.HTTP_RETRIES, 1);
+		retryPolicy.pause(attempt);
 	}
 	
 	/**
@@ -96,39 +216,143 @@ class HillsGateway {
 	 * @throws ClientProtocolException 
 	 */
 	public GatewayResult orderList(String begDate, String endDate) throws ClientProtocolException, IOException {
+		return orderList(begDate, endDate, (OrderPageCache) null);
+	}
+	
+	/**
+	 * Получение заказов на доставку в диапазоне дат без заказов неизменившихся страниц
+	 * @param begDate - начальная дата заказов 
+	 * @param endDate - конечная дата заказов
+	 * @param cache - кэш страниц (может отсутствовать)
+	 * @return результат обращения к сервису в виде списка заказов
+	 * @throws IOException 
+	 * @throws ClientProtocolException 
+	 */
+	public GatewayResult orderList(String begDate, String endDate, OrderPageCache cache) 
+			throws ClientProtocolException, IOException {
+		return new OrderPageFetcher(this, threads, cache).fetch(begDate, endDate);
+	}
+	
+	/**
+	 * Потоковое получение всех заказов на доставку в диапазоне дат.
+	 * Страницы читаются последовательно потоковым парсером, заказы сразу записываются в out
+	 * в виде документа {"results":[...]}, так что в памяти одновременно находится не более одного токена JSON.
+	 * Запрос страницы повторяется при временной ошибке, если из нее еще ничего не записано в out.
+	 * @param begDate - начальная дата заказов ("YYYY-MM-DD")
+	 * @param endDate - конечная дата заказов ("YYYY-MM-DD")
+	 * @param out - приемник объединенного списка заказов
+	 * @return результат обращения к сервису (itemCount - количество записанных заказов)
+	 * @throws IOException
+	 */
+	public GatewayResult orderList(String begDate, String endDate, Writer out) throws IOException {
 		
-		JsonParser parser = new JsonParser();
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginObject().name("results").beginArray();
 		
-		int page = 1;		
-		GatewayResult res = orderListPaged(String.valueOf(page), begDate, endDate);
+		GatewayResult retVal = new GatewayResult();
+		boolean hasNext = true;
+		for (int page = 1, attempt = 0; hasNext; ) {
+			boolean received = false;
+			retVal.success = false;
+			try (CloseableHttpResponse response = client.execute(getOrderPageRequest(String.valueOf(page), begDate, endDate))) {
+				received = true;
+				retVal.responseCode = response.getStatusLine().getStatusCode();
+				retVal.success = (retVal.responseCode == HTTP_OK);
+				if (!retVal.success) {
+					retVal.responseString = EntityUtils.toString(response.getEntity());
+					if (!retryPolicy.shouldRetry(attempt, retVal.responseCode)) {
+						return retVal;
+					}
+				} else {
+					HttpEntity entity = response.getEntity();
+					Charset charset = ContentType.getOrDefault(entity).getCharset();
+					hasNext = copyOrderPage(new InputStreamReader(entity.getContent(), 
+							charset != null ? charset : StandardCharsets.UTF_8), writer, retVal);
+					EntityUtils.consume(entity);
+				}
+			} catch (IOException e) {
+				/* После получения ответа часть страницы уже могла быть записана в out, повтор невозможен */
+				if (received || !retryPolicy.shouldRetry(attempt, e)) {
+					throw e;
+				}
+			}
+			if (retVal.success) {
+				page++;
+				attempt = 0;
+			} else {
+				retry(attempt++);
+			}
+		}
 		
-		if (!res.success) {
-    		return res;
+		writer.endArray().endObject();
+		writer.flush();
+		retVal.responseString = "Orders received: " + retVal.itemCount;
+		return retVal;
+	}
+	
+	/**
+	 * Копирует заказы одной страницы в открытый массив writer
+	 * @param page - текст страницы заказов
+	 * @param writer - приемник заказов
+	 * @param result - результат, в котором увеличивается itemCount
+	 * @return есть ли следующая страница
+	 * @throws IOException
+	 */
+	static boolean copyOrderPage(Reader page, JsonWriter writer, GatewayResult result) throws IOException {
+		
+		boolean hasNext = false;
+		try (JsonReader reader = new JsonReader(page)) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("results")) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						JsonStreams.copyValue(reader, writer);
+						result.itemCount++;
+					}
+					reader.endArray();
+				} else if (name.equals("next") && reader.peek() != JsonToken.NULL) {
+					hasNext = true;
+					reader.skipValue();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
 		}
+		return hasNext;
+	}
+	
+	/**
+	 * Проверяет, есть ли следующая страница, не разбирая заказы страницы
+	 * @param page - текст страницы заказов
+	 * @throws IOException
+	 */
+	static boolean hasNextPage(String page) throws IOException {
 		
-        JsonObject itemObject = parser.parse(res.responseString).getAsJsonObject();
-        JsonObject itemObjectAccum = itemObject.deepCopy();
-        itemObjectAccum.remove("next");
-        itemObjectAccum.remove("previous");
-        
-        while (!itemObject.get("next").isJsonNull()) {        	
-        	
-        	res = orderListPaged(String.valueOf(page++), begDate, endDate);
-        	
-        	if (!res.success) {
-        		return res;    
-        	}
-        	
-        	itemObject = parser.parse(res.responseString).getAsJsonObject();
-        	for (JsonElement item : itemObject.getAsJsonArray("results"))
-        		itemObjectAccum.getAsJsonArray("results").add(item);
-        }
-        
-        res.responseString = itemObjectAccum.toString();
-		return res;
-	}
-	
-	private JsonObject getUpdateRequest(String shippingDate, String status) {
+		try (JsonReader reader = new JsonReader(new StringReader(page))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("next")) {
+					return reader.peek() != JsonToken.NULL;
+				}
+				reader.skipValue();
+			}
+		}
+		return false;
+	}
+	
+	private HttpUriRequest getOrderPageRequest(String page, String begDate, String endDate) {
+		return RequestBuilder.get()
+				.setUri(settings.url + apiOrders)
+				.addParameter("page", page)
+				.addParameter("later_than", begDate)
+				.addParameter("earlier_than", endDate)
+				.build();
+	}
+	
+	static JsonObject getUpdateRequest(String shippingDate, String status) {
 		
 		JsonObject retVal = new JsonObject();
 		if (shippingDate != null && !shippingDate.isEmpty()) {
@@ -141,7 +365,7 @@ class HillsGateway {
 	}
 	
 	/**
-	 * Обновление статуса заказа
+	 * Обновление статуса заказа. При временных ошибках запрос повторяется согласно {@link RetryPolicy}.
 	 * @param number - номер заказа
 	 * @param shippingDate - дата доставки
 	 * @param status - новый статус
@@ -156,21 +380,31 @@ class HillsGateway {
 	public GatewayResult ordersPartialUpdate(String number, String shippingDate, String status) throws IOException {
 		
 		JsonObject itemObject = getUpdateRequest(shippingDate, status);
-		StringEntity entity = new StringEntity(itemObject.toString());
+		StringEntity entity = new StringEntity(itemObject.toString(), ContentType.APPLICATION_JSON);
 		String patchUrl = settings.url + apiOrders + number + "/";
 		
 		HttpUriRequest request = RequestBuilder.patch()
 				.setUri(patchUrl)
 				.setEntity(entity)
 				.build();
-		HttpResponse response = client.execute(request);
-
-	    GatewayResult retVal = new GatewayResult();
-	    retVal.responseCode = response.getStatusLine().getStatusCode();
-        retVal.success = (retVal.responseCode == HTTP_OK || retVal.responseCode == HTTP_CREATED);
-        retVal.responseString = response.getStatusLine().getReasonPhrase();
-		
-		return retVal;	
+		for (int attempt = 0; ; attempt++) {
+			try (CloseableHttpResponse response = client.execute(request)) {
+			    GatewayResult retVal = new GatewayResult();
+			    retVal.responseCode = response.getStatusLine().getStatusCode();
+		        retVal.success = (retVal.responseCode == HTTP_OK || retVal.responseCode == HTTP_CREATED);
+		        retVal.responseString = response.getStatusLine().getReasonPhrase();
+		        EntityUtils.consume(response.getEntity());
+				
+		        if (retVal.success || !retryPolicy.shouldRetry(attempt, retVal.responseCode)) {
+		        	return retVal;
+		        }
+			} catch (IOException e) {
+				if (!retryPolicy.shouldRetry(attempt, e)) {
+					throw e;
+				}
+			}
+			retry(attempt);
+		}
 	}
 
 	/**
@@ -181,20 +415,81 @@ class HillsGateway {
 	 * @throws IOException
 	 */
 	public GatewayResult stockRecordsCreate(String priceList) throws ClientProtocolException, IOException {
+		return stockRecordsCreate(priceList, false);
+	}
+	
+	/**
+	 * Выгрузка прайс-листа в Hills
+	 * @param priceList - список товаров и цен в формате JSON
+	 * @param gzip - сжимать тело запроса (Content-Encoding: gzip)
+	 * @return результат обращения к сервису в виде списка созданных и не созданных записей (JSON)
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	public GatewayResult stockRecordsCreate(String priceList, boolean gzip) throws ClientProtocolException, IOException {
+		
+		HttpEntity entity = new StringEntity(priceList, ContentType.APPLICATION_JSON);
+		return stockRecordsCreate(gzip ? new GzipCompressingEntity(entity) : entity);
+	}
+	
+	/**
+	 * Потоковая выгрузка прайс-листа в Hills: тело запроса читается из reader по мере отправки
+	 * и не размещается в памяти целиком
+	 * @param priceList - список товаров и цен в формате JSON
+	 * @param gzip - сжимать тело запроса (Content-Encoding: gzip)
+	 * @return результат обращения к сервису
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	public GatewayResult stockRecordsCreate(final Reader priceList, boolean gzip) throws ClientProtocolException, IOException {
+		
+		return stockRecordsCreate(new ContentProducer() {
+			@Override
+			public void writeTo(OutputStream stream) throws IOException {
+				Writer out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+				char[] buffer = new char[BUFFER_SIZE];
+				int count;
+				while ((count = priceList.read(buffer)) != -1) {
+					out.write(buffer, 0, count);
+				}
+				out.flush();
+			}
+		}, gzip);
+	}
+	
+	/**
+	 * Потоковая выгрузка прайс-листа в Hills: тело запроса формируется источником в момент отправки
+	 * и передается частями (chunked)
+	 * @param priceList - источник списка товаров и цен в формате JSON (UTF-8)
+	 * @param gzip - сжимать тело запроса (Content-Encoding: gzip)
+	 * @return результат обращения к сервису
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	public GatewayResult stockRecordsCreate(ContentProducer priceList, boolean gzip) throws ClientProtocolException, IOException {
+		
+		EntityTemplate entity = new EntityTemplate(priceList);
+		entity.setChunked(true);
+		entity.setContentType(ContentType.APPLICATION_JSON.toString());
+		return stockRecordsCreate(gzip ? new GzipCompressingEntity(entity) : entity);
+	}
+	
+	private GatewayResult stockRecordsCreate(HttpEntity entity) throws ClientProtocolException, IOException {
 		
 		String postUrl = settings.url + apiCreateRecords;
 		
 		HttpUriRequest request = RequestBuilder.post()
 				.setUri(postUrl)
-				.setEntity(new StringEntity(priceList))
+				.setEntity(entity)
 				.build();
-		HttpResponse response = client.execute(request);
-
-	    GatewayResult retVal = new GatewayResult();
-	    retVal.responseCode = response.getStatusLine().getStatusCode();
-        retVal.success = (retVal.responseCode == HTTP_OK || retVal.responseCode == HTTP_CREATED);
-        retVal.responseString = response.getStatusLine().getReasonPhrase();
-        
-		return retVal;	
+		try (CloseableHttpResponse response = client.execute(request)) {
+		    GatewayResult retVal = new GatewayResult();
+		    retVal.responseCode = response.getStatusLine().getStatusCode();
+	        retVal.success = (retVal.responseCode == HTTP_OK || retVal.responseCode == HTTP_CREATED);
+	        retVal.responseString = response.getStatusLine().getReasonPhrase();
+	        EntityUtils.consume(response.getEntity());
+	        
+			return retVal;
+		}
 	}
 }
@@ -0,0 +1,122 @@
+package ru.evenx.hills;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Заказ Hills в виде строки таблицы hills_orders.
+ * Разбор повторяет конструктор типа hills_order_t.
+ *
+ */
+class HillsOrder {
+	public String orderNumber;
+	public String status;
+	public Timestamp datePlaced;
+	public Date shippingDate;
+	public Long userId;
+	public int isActivatedByDistributor;
+	public String clientId;
+	public String customerId;
+	public String deliveryId;
+	public int bonus;
+	public String jsonContent;
+	public List<HillsOrderLine> lines = new ArrayList<HillsOrderLine>();
+
+	/**
+	 * Разбор пакета заказов
+	 * @param orders - пакет заказов в формате {"results":[...]}
+	 * @return заказы пакета
+	 */
+	static List<HillsOrder> parse(String orders) {
+		List<HillsOrder> retVal = new ArrayList<HillsOrder>();
+		JsonObject itemObject = new JsonParser().parse(orders).getAsJsonObject();
+		for (JsonElement item : itemObject.getAsJsonArray("results")) {
+			retVal.add(parse(item.getAsJsonObject()));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Разбор заказа
+	 * @param ord - заказ (JSON)
+	 */
+	static HillsOrder parse(JsonObject ord) {
+		HillsOrder retVal = new HillsOrder();
+		JsonObject user = object(ord, "user");
+		JsonObject clinic = object(user, "clinic");
+
+		retVal.orderNumber = string(ord, "number");
+		retVal.status = string(ord, "status");
+		String datePlaced = string(ord, "date_placed");
+		if (datePlaced != null) {
+			retVal.datePlaced = Timestamp.valueOf(LocalDateTime.parse(datePlaced.replace("Z", "")));
+		}
+		String shippingDate = string(ord, "shipping_date");
+		retVal.shippingDate = Date.valueOf(shippingDate != null ? LocalDate.parse(shippingDate.substring(0, 10)) : LocalDate.now());
+		String userId = string(user, "id");
+		retVal.userId = userId != null ? Long.valueOf(userId) : null;
+		retVal.isActivatedByDistributor = bool(user, "is_activated_by_distributor") ? 1 : 0;
+		retVal.customerId = string(clinic, "customer_id");
+		retVal.deliveryId = string(clinic, "delivery_id");
+		retVal.clientId = string(clinic, "client_id");
+		retVal.bonus = bool(ord, "bonus") ? 1 : 0;
+		retVal.jsonContent = ord.toString();
+
+		JsonElement lines = ord.get("lines");
+		if (lines != null && lines.isJsonArray()) {
+			for (JsonElement item : lines.getAsJsonArray()) {
+				JsonObject line = item.getAsJsonObject();
+				retVal.lines.add(new HillsOrderLine(string(line, "sku"), 
+						number(line, "final_price"), number(line, "discount"), number(line, "quantity")));
+			}
+		}
+		return retVal;
+	}
+
+	private static JsonObject object(JsonObject parent, String name) {
+		JsonElement value = parent == null ? null : parent.get(name);
+		return value != null && value.isJsonObject() ? value.getAsJsonObject() : null;
+	}
+
+	private static String string(JsonObject parent, String name) {
+		JsonElement value = parent == null ? null : parent.get(name);
+		return value != null && !value.isJsonNull() ? value.getAsString() : null;
+	}
+
+	private static BigDecimal number(JsonObject parent, String name) {
+		JsonElement value = parent == null ? null : parent.get(name);
+		return value != null && !value.isJsonNull() ? value.getAsBigDecimal() : null;
+	}
+
+	private static boolean bool(JsonObject parent, String name) {
+		JsonElement value = parent == null ? null : parent.get(name);
+		return value != null && !value.isJsonNull() && value.getAsBoolean();
+	}
+}
+
+/**
+ * Строка фактуры заказа Hills (тип hills_line_t)
+ *
+ */
+class HillsOrderLine {
+	public final String sku;
+	public final BigDecimal finalPrice;
+	public final BigDecimal discount;
+	public final BigDecimal quantity;
+
+	HillsOrderLine(String sku, BigDecimal finalPrice, BigDecimal discount, BigDecimal quantity) {
+		this.sku = sku;
+		this.finalPrice = finalPrice;
+		this.discount = discount;
+		this.quantity = quantity;
+	}
+}
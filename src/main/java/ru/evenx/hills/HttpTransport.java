@@ -0,0 +1,139 @@
+package ru.evenx.hills;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * HTTP-транспорт к сервису Hills: пул соединений с ограничением на маршрут,
+ * повторное использование соединений (keep-alive), сжатие ответов и таймауты из настроек шлюза.
+ * Каждый запрос (включая повторные попытки) записывается в показатели: время до получения
+ * заголовков ответа и код ответа по адресу, номера заказов в адресе заменяются на {number}.
+ * Время первого запроса отмечается для показателя времени запуска.
+ *
+ */
+class HttpTransport implements Closeable {
+
+	private final int DEFAULT_MAX_PER_ROUTE = 8;
+	private final int DEFAULT_CONNECT_TIMEOUT = 30;
+	private final int DEFAULT_SOCKET_TIMEOUT = 120;
+	private final int DEFAULT_KEEP_ALIVE = 30;
+	private final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient client;
+
+	/**
+	 * @param settings - настройки шлюза
+	 * @param headers - заголовки, добавляемые ко всем запросам
+	 * @param minConnections - минимальное количество соединений на маршрут (по числу потоков шлюза)
+	 * @param metrics - показатели, в которые записываются запросы
+	 */
+	public HttpTransport(GatewaySettings settings, List<Header> headers, int minConnections, final Metrics metrics) {
+
+		int maxPerRoute = Settings.toInt(settings.maxPerRoute, Math.max(minConnections, DEFAULT_MAX_PER_ROUTE));
+		final long keepAlive = TimeUnit.SECONDS.toMillis(Settings.toInt(settings.keepAlive, DEFAULT_KEEP_ALIVE));
+
+		connectionManager = new PoolingHttpClientConnectionManager(keepAlive, TimeUnit.MILLISECONDS);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		connectionManager.setMaxTotal(Settings.toInt(settings.maxConnections, maxPerRoute));
+		connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+		int connectTimeout = (int) TimeUnit.SECONDS.toMillis(Settings.toInt(settings.connectTimeout, DEFAULT_CONNECT_TIMEOUT));
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeout)
+				.setConnectionRequestTimeout(connectTimeout)
+				.setSocketTimeout((int) TimeUnit.SECONDS.toMillis(Settings.toInt(settings.socketTimeout, DEFAULT_SOCKET_TIMEOUT)))
+				.build();
+
+		/* Сервер может сообщить время жизни соединения в заголовке Keep-Alive, иначе используется значение из настроек */
+		ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+				return duration > 0 ? duration : keepAlive;
+			}
+		};
+
+		HttpRequestExecutor requestExecutor = new HttpRequestExecutor() {
+			@Override
+			public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+					throws IOException, HttpException {
+				metrics.markRequest();
+				long start = System.nanoTime();
+				String endpoint = endpoint(request);
+				try {
+					HttpResponse response = super.execute(request, conn, context);
+					metrics.recordRequest(endpoint, response.getStatusLine().getStatusCode(), System.nanoTime() - start);
+					return response;
+				} catch (IOException | HttpException e) {
+					metrics.recordRequest(endpoint, Metrics.IO_ERROR, System.nanoTime() - start);
+					throw e;
+				}
+			}
+		};
+
+		HttpClientBuilder builder = HttpClients.custom()
+				.setDefaultHeaders(headers)
+				.setRequestExecutor(requestExecutor)
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.evictExpiredConnections()
+				.evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+		if ("false".equalsIgnoreCase(settings.compression)) {
+			builder.disableContentCompression();
+		}
+		client = builder.build();
+	}
+
+	/**
+	 * Адрес запроса для показателей: метод и путь без параметров, номера заменены на {number}
+	 */
+	static String endpoint(HttpRequest request) {
+		String uri = request.getRequestLine().getUri();
+		int query = uri.indexOf('?');
+		if (query >= 0) {
+			uri = uri.substring(0, query);
+		}
+		int scheme = uri.indexOf("://");
+		if (scheme >= 0) {
+			int path = uri.indexOf('/', scheme + 3);
+			uri = path >= 0 ? uri.substring(path) : "/";
+		}
+		return request.getRequestLine().getMethod() + " " + uri.replaceAll("/[0-9]+(?=/|$)", "/{number}");
+	}
+
+	public CloseableHttpClient getClient() {
+		return client;
+	}
+
+	/**
+	 * Текущее использование пула соединений
+	 */
+	public PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	@Override
+	public void close() throws IOException {
+		client.close();
+	}
+}
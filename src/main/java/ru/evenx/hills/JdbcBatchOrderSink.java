@@ -0,0 +1,167 @@
+package ru.evenx.hills;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+/**
+ * Запись заказов на стороне Java: заказы разбираются в строки таблицы,
+ * записываются пакетными запросами JDBC и фиксируются одной транзакцией на пакет.
+ * Как и update_or_insert, для существующего заказа обновляется только статус,
+ * новый заказ вставляется вместе со строками фактуры.
+ *
+ */
+abstract class JdbcBatchOrderSink implements OrderSink {
+
+	private static final int IN_LIST_SIZE = 500;
+
+	protected final DataSource dataSource;
+
+	/**
+	 * @param dataSource - пул подключений к БД
+	 */
+	protected JdbcBatchOrderSink(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/** Запрос существующих заказов; к тексту добавляется список параметров IN (...) */
+	protected abstract String selectExistingSql();
+
+	/** Обновление статуса: параметры (status, order_number) */
+	protected abstract String updateStatusSql();
+
+	/** Вставка заказа: параметры (order_number, status, date_placed, shipping_date, user_id,
+	 *  is_activated_by_distributor, client_id, customer_id, delivery_id, bonus, json_content) */
+	protected abstract String insertOrderSql();
+
+	/** Вставка строки фактуры: параметры (order_number, sku, final_price, discount, quantity) */
+	protected abstract String insertLineSql();
+
+	@Override
+	public void accept(String orders) throws HillsException {
+		write(HillsOrder.parse(orders));
+	}
+
+	/**
+	 * Записывает заказы одной транзакцией
+	 * @param orders - заказы
+	 * @throws HillsException
+	 */
+	public void write(List<HillsOrder> orders) throws HillsException {
+		if (orders.isEmpty()) {
+			return;
+		}
+		try (Connection dbcon = dataSource.getConnection()) {
+			boolean autoCommit = dbcon.getAutoCommit();
+			dbcon.setAutoCommit(false);
+			try {
+				write(dbcon, orders);
+				dbcon.commit();
+			} catch (SQLException | RuntimeException e) {
+				dbcon.rollback();
+				throw e;
+			} finally {
+				dbcon.setAutoCommit(autoCommit);
+			}
+		} catch (SQLException | RuntimeException e) {
+			throw new HillsException("Write orders exception", e);
+		}
+	}
+
+	private void write(Connection dbcon, List<HillsOrder> orders) throws SQLException {
+
+		Set<String> existing = selectExisting(dbcon, orders);
+		try (PreparedStatement insert = dbcon.prepareStatement(insertOrderSql());
+				PreparedStatement insertLine = dbcon.prepareStatement(insertLineSql());
+				PreparedStatement update = dbcon.prepareStatement(updateStatusSql())) {
+
+			boolean hasInserts = false;
+			boolean hasLines = false;
+			boolean hasUpdates = false;
+			for (HillsOrder order : orders) {
+				if (existing.add(order.orderNumber)) {
+					bindOrder(insert, order);
+					insert.addBatch();
+					hasInserts = true;
+					for (HillsOrderLine line : order.lines) {
+						bindLine(insertLine, order, line);
+						insertLine.addBatch();
+						hasLines = true;
+					}
+				} else {
+					update.setString(1, order.status);
+					update.setString(2, order.orderNumber);
+					update.addBatch();
+					hasUpdates = true;
+				}
+			}
+
+			if (hasInserts) {
+				insert.executeBatch();
+			}
+			if (hasLines) {
+				insertLine.executeBatch();
+			}
+			if (hasUpdates) {
+				update.executeBatch();
+			}
+		}
+	}
+
+	private Set<String> selectExisting(Connection dbcon, List<HillsOrder> orders) throws SQLException {
+		Set<String> retVal = new HashSet<String>();
+		for (int from = 0; from < orders.size(); from += IN_LIST_SIZE) {
+			List<HillsOrder> part = orders.subList(from, Math.min(from + IN_LIST_SIZE, orders.size()));
+			StringBuilder sql = new StringBuilder(selectExistingSql()).append(" (");
+			for (int i = 0; i < part.size(); i++) {
+				sql.append(i == 0 ? "?" : ", ?");
+			}
+			sql.append(")");
+			try (PreparedStatement stmt = dbcon.prepareStatement(sql.toString())) {
+				for (int i = 0; i < part.size(); i++) {
+					stmt.setString(i + 1, part.get(i).orderNumber);
+				}
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						retVal.add(rs.getString(1));
+					}
+				}
+			}
+		}
+		return retVal;
+	}
+
+	private void bindOrder(PreparedStatement stmt, HillsOrder order) throws SQLException {
+		stmt.setString(1, order.orderNumber);
+		stmt.setString(2, order.status);
+		stmt.setTimestamp(3, order.datePlaced);
+		stmt.setDate(4, order.shippingDate);
+		if (order.userId != null) {
+			stmt.setLong(5, order.userId);
+		} else {
+			stmt.setNull(5, Types.NUMERIC);
+		}
+		stmt.setInt(6, order.isActivatedByDistributor);
+		stmt.setString(7, order.clientId);
+		stmt.setString(8, order.customerId);
+		stmt.setString(9, order.deliveryId);
+		stmt.setInt(10, order.bonus);
+		stmt.setCharacterStream(11, new StringReader(order.jsonContent), order.jsonContent.length());
+	}
+
+	private void bindLine(PreparedStatement stmt, HillsOrder order, HillsOrderLine line) throws SQLException {
+		stmt.setString(1, order.orderNumber);
+		stmt.setString(2, line.sku);
+		stmt.setBigDecimal(3, line.finalPrice);
+		stmt.setBigDecimal(4, line.discount);
+		stmt.setBigDecimal(5, line.quantity);
+	}
+}
@@ -0,0 +1,122 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Формирование прайс-листа на стороне Java.
+ * Выполняет тот же запрос по ценам и остаткам, что и hills.get_upload_request,
+ * но строки читаются через JDBC и сразу записываются в JSON без временного LOB в БД.
+ *
+ */
+class JdbcPriceList {
+
+	/* Цены и остатки позиций; scn - SCN последней зафиксированной транзакции по строкам позиции
+	   в goodsrem и price, по нему выгрузка по изменениям (JdbcStockSource) отбирает изменившиеся позиции */
+	static final String QUERY = "SELECT "
+			+ "           TO_CHAR(gr.goodscode) sku, "
+			+ "           ROUND(p.pricer, 2) price, "
+			+ "           CASE WHEN gr.rem < 0 THEN 0 ELSE gr.rem END quantity, "
+			+ "           GREATEST(gr.scn, p.ORA_ROWSCN) scn "
+			+ "         FROM "
+			+ "           price p, "
+			+ "          (SELECT goodscode, SUM(remainder) rem, MAX(ORA_ROWSCN) scn "
+			+ "           FROM goodsrem "
+			+ "           WHERE goodscode IN (SELECT goodscode "
+			+ "                               FROM goods "
+			+ "                               WHERE prodcode = 88 AND hiddenflag = 0) "
+			+ "           GROUP BY goodscode) gr "
+			+ "         WHERE "
+			+ "           p.pservcode = '*' AND p.pformcode = ? AND p.goodscode = gr.goodscode AND p.histno = 0";
+
+	private final DataSource dataSource;
+	private final int priceFormCode;
+	private final int fetchSize;
+
+	/**
+	 * @param dataSource - пул подключений к БД СКАТ
+	 * @param priceFormCode - код формы цен
+	 * @param fetchSize - количество строк, получаемых из БД за одно обращение
+	 */
+	public JdbcPriceList(DataSource dataSource, int priceFormCode, int fetchSize) {
+		this.dataSource = dataSource;
+		this.priceFormCode = priceFormCode;
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Код формы цен по имени БД, как в hills.get_price_form_code
+	 * @param dbName - имя БД
+	 * @return код формы цен или null, если БД неизвестна
+	 */
+	static Integer priceFormCode(String dbName) {
+		if ("CSALES".equalsIgnoreCase(dbName)) {
+			return 108;
+		} else if ("EVSURG".equalsIgnoreCase(dbName)) {
+			return 215;
+		}
+		return null;
+	}
+
+	/**
+	 * Чтение прайс-листа в память
+	 * @return записи прайс-листа
+	 * @throws SQLException
+	 */
+	public List<StockRecord> read() throws SQLException {
+		List<StockRecord> retVal = new ArrayList<StockRecord>();
+		try (Connection dbcon = dataSource.getConnection(); 
+				PreparedStatement stmt = prepare(dbcon); 
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				retVal.add(toRecord(rs));
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Потоковая запись прайс-листа в формате {"stock_records":[...]}
+	 * @param out - приемник
+	 * @return количество записанных позиций
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public int writeTo(Writer out) throws SQLException, IOException {
+		int retVal = 0;
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginObject().name("stock_records").beginArray();
+		try (Connection dbcon = dataSource.getConnection(); 
+				PreparedStatement stmt = prepare(dbcon); 
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				toRecord(rs).write(writer);
+				retVal++;
+			}
+		}
+		writer.endArray().endObject();
+		writer.flush();
+		return retVal;
+	}
+
+	private PreparedStatement prepare(Connection dbcon) throws SQLException {
+		PreparedStatement stmt = dbcon.prepareStatement(QUERY);
+		stmt.setFetchSize(fetchSize);
+		stmt.setInt(1, priceFormCode);
+		return stmt;
+	}
+
+	private StockRecord toRecord(ResultSet rs) throws SQLException {
+		return new StockRecord(rs.getString("sku"), rs.getBigDecimal("price"), rs.getBigDecimal("quantity"));
+	}
+}
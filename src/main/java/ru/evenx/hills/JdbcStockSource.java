@@ -0,0 +1,75 @@
+package ru.evenx.hills;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * Изменения остатков и цен из БД СКАТ.
+ * Отметкой служит SCN последней зафиксированной транзакции (ORA_ROWSCN) по строкам goodsrem и price:
+ * выбираются позиции, у которых есть строки с SCN больше отметки, значения считаются запросом
+ * прайс-листа {@link JdbcPriceList#QUERY}. Без ROWDEPENDENCIES ORA_ROWSCN отслеживается по блокам,
+ * поэтому в выборку попадают и соседние неизменившиеся позиции - они отсеиваются по снимку.
+ * Позиции, все строки остатков или цена которых удалены, в выборку по отметке не попадают:
+ * они обнаруживаются при периодической сверке полного прайс-листа ({@link #all()}) со снимком.
+ *
+ */
+class JdbcStockSource implements StockSource {
+
+	private final String qry = "SELECT sku, price, quantity, scn FROM (" + JdbcPriceList.QUERY + ") WHERE scn > ?";
+
+	private final DataSource dataSource;
+	private final int priceFormCode;
+	private final int fetchSize;
+
+	/**
+	 * @param dataSource - пул подключений к БД СКАТ
+	 * @param priceFormCode - код формы цен
+	 * @param fetchSize - количество строк, получаемых из БД за одно обращение
+	 */
+	public JdbcStockSource(DataSource dataSource, int priceFormCode, int fetchSize) {
+		this.dataSource = dataSource;
+		this.priceFormCode = priceFormCode;
+		this.fetchSize = fetchSize;
+	}
+
+	@Override
+	public Changes changesSince(String watermark) throws HillsException {
+		BigDecimal scn = watermark != null ? new BigDecimal(watermark) : BigDecimal.ZERO;
+		BigDecimal maxScn = scn;
+		List<StockRecord> records = new ArrayList<StockRecord>();
+		try (Connection dbcon = dataSource.getConnection();
+				PreparedStatement stmt = dbcon.prepareStatement(qry)) {
+			stmt.setFetchSize(fetchSize);
+			stmt.setInt(1, priceFormCode);
+			stmt.setBigDecimal(2, scn);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					records.add(new StockRecord(rs.getString("sku"), rs.getBigDecimal("price"), rs.getBigDecimal("quantity")));
+					BigDecimal rowScn = rs.getBigDecimal("scn");
+					if (rowScn != null && rowScn.compareTo(maxScn) > 0) {
+						maxScn = rowScn;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new HillsException("Select stock changes exception", e);
+		}
+		return new Changes(records, maxScn.toPlainString());
+	}
+
+	@Override
+	public List<StockRecord> all() throws HillsException {
+		try {
+			return new JdbcPriceList(dataSource, priceFormCode, fetchSize).read();
+		} catch (SQLException e) {
+			throw new HillsException("Select price list exception", e);
+		}
+	}
+}
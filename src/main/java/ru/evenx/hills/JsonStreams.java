@@ -0,0 +1,69 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Потоковое копирование JSON без построения дерева объектов в памяти
+ *
+ */
+final class JsonStreams {
+
+	private JsonStreams() {
+	}
+
+	/**
+	 * Копирует очередное значение (объект, массив или примитив) из reader в writer
+	 * @param reader - источник
+	 * @param writer - приемник
+	 * @throws IOException
+	 */
+	static void copyValue(JsonReader reader, JsonWriter writer) throws IOException {
+
+		int depth = 0;
+		do {
+			switch (reader.peek()) {
+				case BEGIN_OBJECT:
+					reader.beginObject();
+					writer.beginObject();
+					depth++;
+					break;
+				case END_OBJECT:
+					reader.endObject();
+					writer.endObject();
+					depth--;
+					break;
+				case BEGIN_ARRAY:
+					reader.beginArray();
+					writer.beginArray();
+					depth++;
+					break;
+				case END_ARRAY:
+					reader.endArray();
+					writer.endArray();
+					depth--;
+					break;
+				case NAME:
+					writer.name(reader.nextName());
+					break;
+				case STRING:
+					writer.value(reader.nextString());
+					break;
+				case NUMBER:
+					writer.jsonValue(reader.nextString());
+					break;
+				case BOOLEAN:
+					writer.value(reader.nextBoolean());
+					break;
+				case NULL:
+					reader.nextNull();
+					writer.nullValue();
+					break;
+				default:
+					throw new IOException("Unexpected end of JSON document");
+			}
+		} while (depth > 0);
+	}
+}
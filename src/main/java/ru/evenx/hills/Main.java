@@ -21,6 +21,12 @@ public class Main implements Runnable
 	@Option(names = { "-S", "--settings" }, required = true, paramLabel = "<xml file>", description = "Load settings xml-file")
 	private File settings;
 	
+	@Option(names = { "-d", "--daemon" }, description = "Run upload and download on schedule until stopped")
+	private boolean daemon;
+	
+	@Option(names = { "-c", "--check" }, description = "Check settings without connecting to DB and service")
+	private boolean check;
+	
     private static final Logger log = LoggerFactory.getLogger("ru.evenx.logback");
 	
 	public static void main( String[] args )
@@ -35,20 +41,56 @@ public class Main implements Runnable
 			return;
 		}
 		
+		if (check) {
+			check();
+			return;
+		}
+		
 		String subjSuffix = ": OK";
 		
 		Hills hills = new Hills();
+		HillsDaemon hillsDaemon = null;
 		try {
 			hills.readSettings(settings);
-			hills.logOn();
-			hills.doWork();
-			hills.logOff();
+			if (hills.hasTenants()) {
+				if (daemon) {
+					throw new HillsException("Daemon mode is not supported for tenants");
+				}
+				hills.runTenants();
+			} else if (daemon) {
+				hills.logOn();
+				hills.prepare();
+				hillsDaemon = new HillsDaemon(hills);
+				hillsDaemon.run();
+				hills.logOff();
+			} else {
+				/* подключение к БД выполняется при первом обращении */
+				hills.doWork();
+				hills.logOff();
+			}
 		} catch (Throwable e) {
 			log.error(e.getMessage(), e);
 			subjSuffix = ": ERROR";
 			
 		} finally {
 			hills.sendLog(subjSuffix);
+			if (hillsDaemon != null) {
+				hillsDaemon.release();
+			}
+		}
+	}
+
+	/**
+	 * Проверка файла настроек без подключения к БД и сервису и без отправки лога
+	 */
+	private void check() {
+		Hills hills = new Hills();
+		try {
+			hills.readSettings(settings);
+			hills.check();
+			log.info("Settings OK");
+		} catch (Throwable e) {
+			log.error(e.getMessage(), e);
 		}
 	}
 }
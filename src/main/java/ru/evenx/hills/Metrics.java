@@ -0,0 +1,353 @@
+package ru.evenx.hills;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Показатели работы: длительность этапов, задержки HTTP-запросов по адресам,
+ * количество ответов по кодам, счетчики обработанных заказов и товаров
+ * и время от запуска JVM до первого запроса к сервису.
+ * Значения накапливаются за все время работы процесса и выгружаются
+ * в текстовом формате Prometheus или в JSON.
+ *
+ */
+class Metrics {
+
+	/* Этапы */
+	static final String PHASE_PAGE_FETCH = "page_fetch";
+	static final String PHASE_PROCESS_ORDERS = "process_orders";
+	static final String PHASE_ORDER_STATUS = "define_order_status";
+	static final String PHASE_PRICE_LIST = "price_list_build";
+	static final String PHASE_UPLOAD = "upload";
+
+	/* Счетчики */
+	static final String ORDERS_DOWNLOADED = "orders_downloaded";
+	static final String STATUS_UPDATES_SENT = "status_updates_sent";
+	static final String STATUS_UPDATES_FAILED = "status_updates_failed";
+	static final String STATUS_UPDATES_SKIPPED = "status_updates_skipped";
+	static final String STATUS_CALLS_PLANNED = "status_calls_planned";
+	static final String STATUS_CALLS_AVOIDED = "status_calls_avoided";
+	static final String SKUS_UPLOADED = "skus_uploaded";
+	static final String HTTP_RETRIES = "http_retries";
+	static final String STOCK_CHANGES = "stock_changes";
+	static final String STOCK_CHANGES_COALESCED = "stock_changes_coalesced";
+	static final String PAGE_CACHE_HITS = "page_cache_hits";
+	static final String PAGE_CACHE_MISSES = "page_cache_misses";
+	static final String PAGE_CACHE_BYTES_SAVED = "page_cache_bytes_saved";
+
+	/* Код ответа для запросов, завершившихся ошибкой ввода-вывода */
+	static final int IO_ERROR = 0;
+
+	/* Границы корзин гистограммы задержек, в секундах */
+	private static final double[] BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };
+
+	private static final String PREFIX = "hills_";
+
+	private final ConcurrentHashMap<String, Summary> phases = new ConcurrentHashMap<String, Summary>();
+	private final ConcurrentHashMap<String, Histogram> requests = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentHashMap<String, AtomicLong> responses = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong firstRequest = new AtomicLong();
+
+	/**
+	 * Запускает замер этапа; длительность записывается при вызове {@link Timer#stop()}
+	 * @param phase - название этапа
+	 */
+	public Timer time(String phase) {
+		return new Timer(phase);
+	}
+
+	/**
+	 * Записывает длительность этапа
+	 * @param phase - название этапа
+	 * @param nanos - длительность в наносекундах
+	 */
+	public void recordPhase(String phase, long nanos) {
+		Summary summary = phases.get(phase);
+		if (summary == null) {
+			phases.putIfAbsent(phase, new Summary());
+			summary = phases.get(phase);
+		}
+		summary.add(nanos);
+	}
+
+	/**
+	 * Записывает выполненный HTTP-запрос
+	 * @param endpoint - адрес ("метод путь")
+	 * @param statusCode - код ответа или {@link #IO_ERROR}
+	 * @param nanos - время до получения заголовков ответа в наносекундах
+	 */
+	public void recordRequest(String endpoint, int statusCode, long nanos) {
+		Histogram histogram = requests.get(endpoint);
+		if (histogram == null) {
+			requests.putIfAbsent(endpoint, new Histogram());
+			histogram = requests.get(endpoint);
+		}
+		histogram.add(nanos);
+		counter(responses, endpoint + "\t" + statusCode).incrementAndGet();
+	}
+
+	/**
+	 * Отмечает начало HTTP-запроса; запоминается время первого запроса
+	 */
+	public void markRequest() {
+		if (firstRequest.get() == 0) {
+			firstRequest.compareAndSet(0, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Время от запуска JVM до первого запроса к сервису
+	 * @return мс или -1, если запросов еще не было
+	 */
+	public long getTimeToFirstRequest() {
+		long first = firstRequest.get();
+		return first == 0 ? -1 : first - ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+
+	/**
+	 * Увеличивает счетчик
+	 * @param name - название счетчика
+	 * @param delta - приращение
+	 */
+	public void increment(String name, long delta) {
+		counter(counters, name).addAndGet(delta);
+	}
+
+	/**
+	 * Текущее значение счетчика
+	 */
+	public long getCounter(String name) {
+		AtomicLong counter = counters.get(name);
+		return counter == null ? 0 : counter.get();
+	}
+
+	private static AtomicLong counter(ConcurrentHashMap<String, AtomicLong> map, String key) {
+		AtomicLong retVal = map.get(key);
+		if (retVal == null) {
+			map.putIfAbsent(key, new AtomicLong());
+			retVal = map.get(key);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Показатели в текстовом формате Prometheus
+	 */
+	public String toPrometheus() {
+		StringBuilder out = new StringBuilder();
+
+		out.append("# TYPE ").append(PREFIX).append("phase_seconds summary\n");
+		for (Map.Entry<String, Summary> entry : new TreeMap<String, Summary>(phases).entrySet()) {
+			Summary summary = entry.getValue().copy();
+			String labels = "{phase=\"" + entry.getKey() + "\"}";
+			out.append(PREFIX).append("phase_seconds_count").append(labels).append(' ').append(summary.count).append('\n');
+			out.append(PREFIX).append("phase_seconds_sum").append(labels).append(' ').append(seconds(summary.sum)).append('\n');
+		}
+		out.append("# TYPE ").append(PREFIX).append("phase_seconds_max gauge\n");
+		for (Map.Entry<String, Summary> entry : new TreeMap<String, Summary>(phases).entrySet()) {
+			out.append(PREFIX).append("phase_seconds_max{phase=\"").append(entry.getKey()).append("\"} ")
+				.append(seconds(entry.getValue().copy().max)).append('\n');
+		}
+
+		out.append("# TYPE ").append(PREFIX).append("http_request_seconds histogram\n");
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(requests).entrySet()) {
+			Histogram histogram = entry.getValue().copy();
+			String endpoint = "endpoint=\"" + entry.getKey() + "\"";
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += histogram.buckets[i];
+				out.append(PREFIX).append("http_request_seconds_bucket{").append(endpoint)
+					.append(",le=\"").append(BUCKETS[i]).append("\"} ").append(cumulative).append('\n');
+			}
+			out.append(PREFIX).append("http_request_seconds_bucket{").append(endpoint)
+				.append(",le=\"+Inf\"} ").append(histogram.count).append('\n');
+			out.append(PREFIX).append("http_request_seconds_count{").append(endpoint).append("} ")
+				.append(histogram.count).append('\n');
+			out.append(PREFIX).append("http_request_seconds_sum{").append(endpoint).append("} ")
+				.append(seconds(histogram.sum)).append('\n');
+		}
+
+		out.append("# TYPE ").append(PREFIX).append("http_responses_total counter\n");
+		for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(responses).entrySet()) {
+			String[] key = entry.getKey().split("\t");
+			out.append(PREFIX).append("http_responses_total{endpoint=\"").append(key[0])
+				.append("\",code=\"").append(key[1]).append("\"} ").append(entry.getValue().get()).append('\n');
+		}
+
+		for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+			out.append("# TYPE ").append(PREFIX).append(entry.getKey()).append("_total counter\n");
+			out.append(PREFIX).append(entry.getKey()).append("_total ").append(entry.getValue().get()).append('\n');
+		}
+
+		long timeToFirstRequest = getTimeToFirstRequest();
+		if (timeToFirstRequest >= 0) {
+			out.append("# TYPE ").append(PREFIX).append("time_to_first_request_seconds gauge\n");
+			out.append(PREFIX).append("time_to_first_request_seconds ").append(timeToFirstRequest / 1e3).append('\n');
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Показатели в формате JSON
+	 */
+	public String toJson() {
+		StringWriter out = new StringWriter();
+		try {
+			JsonWriter writer = new JsonWriter(out);
+			writer.beginObject();
+
+			writer.name("phases").beginObject();
+			for (Map.Entry<String, Summary> entry : new TreeMap<String, Summary>(phases).entrySet()) {
+				Summary summary = entry.getValue().copy();
+				writer.name(entry.getKey()).beginObject()
+					.name("count").value(summary.count)
+					.name("totalMs").value(TimeUnit.NANOSECONDS.toMillis(summary.sum))
+					.name("maxMs").value(TimeUnit.NANOSECONDS.toMillis(summary.max))
+					.endObject();
+			}
+			writer.endObject();
+
+			writer.name("requests").beginObject();
+			for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(requests).entrySet()) {
+				Histogram histogram = entry.getValue().copy();
+				writer.name(entry.getKey()).beginObject()
+					.name("count").value(histogram.count)
+					.name("totalMs").value(TimeUnit.NANOSECONDS.toMillis(histogram.sum));
+				writer.name("buckets").beginObject();
+				for (int i = 0; i < BUCKETS.length; i++) {
+					writer.name(String.valueOf(BUCKETS[i])).value(histogram.buckets[i]);
+				}
+				writer.name("+Inf").value(histogram.buckets[BUCKETS.length]);
+				writer.endObject();
+				writer.name("codes").beginObject();
+				for (Map.Entry<String, AtomicLong> response : new TreeMap<String, AtomicLong>(responses).entrySet()) {
+					String[] key = response.getKey().split("\t");
+					if (key[0].equals(entry.getKey())) {
+						writer.name(key[1]).value(response.getValue().get());
+					}
+				}
+				writer.endObject();
+				writer.endObject();
+			}
+			writer.endObject();
+
+			writer.name("counters").beginObject();
+			for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+				writer.name(entry.getKey()).value(entry.getValue().get());
+			}
+			writer.endObject();
+
+			long timeToFirstRequest = getTimeToFirstRequest();
+			if (timeToFirstRequest >= 0) {
+				writer.name("timeToFirstRequestMs").value(timeToFirstRequest);
+			}
+
+			writer.endObject();
+			writer.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Сохраняет показатели в файл: в JSON, если имя файла оканчивается на .json,
+	 * иначе в текстовом формате Prometheus (например, для node_exporter textfile collector).
+	 * Запись выполняется через временный файл.
+	 * @param file - файл показателей
+	 * @throws IOException
+	 */
+	public void export(File file) throws IOException {
+		String content = file.getName().toLowerCase().endsWith(".json") ? toJson() : toPrometheus();
+		File tmp = new File(file.getPath() + ".tmp");
+		Files.write(tmp.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	/**
+	 * Замер длительности этапа: запускается {@link Metrics#time(String)}, завершается {@link #stop()} в блоке finally
+	 */
+	class Timer {
+		private final String phase;
+		private final long start = System.nanoTime();
+
+		private Timer(String phase) {
+			this.phase = phase;
+		}
+
+		/**
+		 * Завершает замер и добавляет длительность к этапу
+		 */
+		public void stop() {
+			recordPhase(phase, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Количество, сумма и максимум длительностей
+	 */
+	private static class Summary {
+		long count;
+		long sum;
+		long max;
+
+		synchronized void add(long nanos) {
+			count++;
+			sum += nanos;
+			max = Math.max(max, nanos);
+		}
+
+		synchronized Summary copy() {
+			Summary retVal = new Summary();
+			retVal.count = count;
+			retVal.sum = sum;
+			retVal.max = max;
+			return retVal;
+		}
+	}
+
+	/**
+	 * Гистограмма длительностей с фиксированными границами корзин
+	 */
+	private static class Histogram {
+		final long[] buckets = new long[BUCKETS.length + 1];
+		long count;
+		long sum;
+
+		synchronized void add(long nanos) {
+			double value = seconds(nanos);
+			int i = 0;
+			while (i < BUCKETS.length && value > BUCKETS[i]) {
+				i++;
+			}
+			buckets[i]++;
+			count++;
+			sum += nanos;
+		}
+
+		synchronized Histogram copy() {
+			Histogram retVal = new Histogram();
+			System.arraycopy(buckets, 0, retVal.buckets, 0, buckets.length);
+			retVal.count = count;
+			retVal.sum = sum;
+			return retVal;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package ru.evenx.hills;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+/**
+ * Пакетная запись заказов в объектную таблицу evad.hills_orders.
+ * После записи всех пакетов создание документов выполняет hills.process_downloaded_orders.
+ *
+ */
+class OracleOrderSink extends JdbcBatchOrderSink {
+
+	/**
+	 * @param dataSource - пул подключений к БД СКАТ
+	 */
+	public OracleOrderSink(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	@Override
+	protected String selectExistingSql() {
+		return "SELECT TO_CHAR(ho.order_number) FROM evad.hills_orders ho WHERE ho.order_number IN";
+	}
+
+	@Override
+	protected String updateStatusSql() {
+		return "UPDATE evad.hills_orders ho SET ho.status = ? WHERE ho.order_number = ?";
+	}
+
+	@Override
+	protected String insertOrderSql() {
+		return "INSERT INTO evad.hills_orders "
+				+ "  (date_download, order_number, status, date_placed, shipping_date, user_id, "
+				+ "   is_activated_by_distributor, client_id, customer_id, delivery_id, bonus, "
+				+ "   tradedoc_code, tradedoc_status, json_content, invoice) "
+				+ "VALUES "
+				+ "  (CURRENT_TIMESTAMP, ?, ?, ?, ?, ?, "
+				+ "   ?, ?, evad.salepoint_t(?), ?, ?, "
+				+ "   -1, NULL, ?, evad.hills_invoice_tab())";
+	}
+
+	@Override
+	protected String insertLineSql() {
+		return "INSERT INTO TABLE(SELECT ho.invoice FROM evad.hills_orders ho WHERE ho.order_number = ?) "
+				+ "VALUES (evad.hills_line_t(?, ?, ?, ?))";
+	}
+
+	@Override
+	public void complete() throws HillsException {
+		try (Connection dbcon = dataSource.getConnection();
+				CallableStatement stmt = dbcon.prepareCall("{ call hills.process_downloaded_orders }")) {
+			stmt.execute();
+		} catch (SQLException e) {
+			throw new HillsException("Call process_downloaded_orders() exception", e);
+		}
+	}
+}
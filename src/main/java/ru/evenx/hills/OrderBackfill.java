@@ -0,0 +1,203 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Дозагрузка истории заказов за произвольный диапазон дат.
+ * Диапазон делится на интервалы (день, неделя или заданное количество дней), интервалы
+ * загружаются параллельно в ограниченном количестве потоков и записываются в БД независимо
+ * друг от друга. Записанные интервалы отмечаются в {@link BackfillProgress}, поэтому ошибка
+ * в одном интервале не отменяет остальные, а повторный запуск загружает только недостающие.
+ *
+ */
+class OrderBackfill {
+
+	private static final Logger log = LoggerFactory.getLogger("ru.evenx.logback");
+
+	private static final String DATE_FORMAT = "yyyy-MM-dd";
+
+	private final HillsGateway gateway;
+	private final OrderSink sink;
+	private final int threads;
+	private final BackfillProgress progress;
+
+	/**
+	 * @param gateway - шлюз к сервису Hills
+	 * @param sink - приемник заказов; должен допускать запись из нескольких потоков
+	 * @param threads - количество одновременно загружаемых интервалов
+	 * @param progress - ход дозагрузки
+	 */
+	public OrderBackfill(HillsGateway gateway, OrderSink sink, int threads, BackfillProgress progress) {
+		this.gateway = gateway;
+		this.sink = sink;
+		this.threads = Math.max(1, threads);
+		this.progress = progress;
+	}
+
+	/**
+	 * Делит диапазон дат на интервалы. Соседние интервалы имеют общую границу,
+	 * последний интервал может быть короче остальных.
+	 * @param begDate - начальная дата диапазона ("YYYY-MM-DD")
+	 * @param endDate - конечная дата диапазона ("YYYY-MM-DD")
+	 * @param days - длина интервала в днях
+	 * @return пары {начальная дата, конечная дата}
+	 * @throws HillsException - если дата задана неверно
+	 */
+	static List<String[]> slices(String begDate, String endDate, int days) throws HillsException {
+		SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+		format.setLenient(false);
+		Calendar c = Calendar.getInstance();
+		String end;
+		try {
+			c.setTime(format.parse(begDate));
+			end = format.format(format.parse(endDate));
+		} catch (ParseException e) {
+			throw new HillsException("Wrong backfill date : " + e.getMessage(), e);
+		}
+
+		List<String[]> retVal = new ArrayList<String[]>();
+		String from = format.format(c.getTime());
+		while (from.compareTo(end) < 0) {
+			c.add(Calendar.DATE, Math.max(1, days));
+			String to = format.format(c.getTime());
+			if (to.compareTo(end) > 0) {
+				to = end;
+			}
+			retVal.add(new String[] { from, to });
+			from = to;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Загружает заказы за диапазон дат
+	 * @param begDate - начальная дата диапазона ("YYYY-MM-DD")
+	 * @param endDate - конечная дата диапазона ("YYYY-MM-DD")
+	 * @param days - длина интервала в днях
+	 * @return количество загруженных заказов
+	 * @throws HillsException - если не все интервалы записаны
+	 */
+	public int run(String begDate, String endDate, int days) throws HillsException {
+
+		List<String[]> slices = slices(begDate, endDate, days);
+		List<String[]> pending = new ArrayList<String[]>();
+		for (String[] slice : slices) {
+			if (!progress.isDone(slice[0], slice[1])) {
+				pending.add(slice);
+			}
+		}
+		final int total = slices.size();
+		int skipped = total - pending.size();
+		if (skipped > 0) {
+			log.info(String.format("Backfill slices already loaded: %1$d of %2$d", skipped, total));
+		}
+
+		final AtomicInteger completed = new AtomicInteger(skipped);
+		List<Future<SliceResult>> futures = new ArrayList<Future<SliceResult>>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final String[] slice : pending) {
+				futures.add(executor.submit(new Callable<SliceResult>() {
+					@Override
+					public SliceResult call() {
+						SliceResult result = load(slice[0], slice[1]);
+						log.info(String.format("Backfill slice %1$s - %2$s (%3$d of %4$d): orders %5$d, "
+								+ "fetch %6$d ms, ingest %7$d ms, %8$s",
+								result.begDate, result.endDate, completed.incrementAndGet(), total, result.orders,
+								TimeUnit.NANOSECONDS.toMillis(result.fetchNanos),
+								TimeUnit.NANOSECONDS.toMillis(result.ingestNanos),
+								result.error == null ? "OK" : "FAILED " + result.error));
+						return result;
+					}
+				}));
+			}
+
+			int orders = 0;
+			int failed = 0;
+			for (Future<SliceResult> future : futures) {
+				SliceResult result = future.get();
+				if (result.error == null) {
+					orders += result.orders;
+				} else {
+					failed++;
+				}
+			}
+			log.info(String.format("Backfill %1$s - %2$s: slices %3$d, loaded %4$d, skipped %5$d, failed %6$d, orders %7$d",
+					begDate, endDate, total, futures.size() - failed, skipped, failed, orders));
+			if (failed > 0) {
+				throw new HillsException(String.format("Backfill exception : %1$d of %2$d slices failed", failed, total));
+			}
+			return orders;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HillsException("Backfill interrupted", e);
+		} catch (ExecutionException e) {
+			throw new HillsException("Backfill exception", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Загружает и записывает один интервал. Ошибка возвращается в результате,
+	 * чтобы не прерывать загрузку остальных интервалов.
+	 */
+	private SliceResult load(String begDate, String endDate) {
+		SliceResult result = new SliceResult(begDate, endDate);
+		Metrics metrics = gateway.getMetrics();
+		try {
+			long start = System.nanoTime();
+			GatewayResult res = gateway.orderList(begDate, endDate);
+			result.fetchNanos = System.nanoTime() - start;
+			metrics.recordPhase(Metrics.PHASE_PAGE_FETCH, result.fetchNanos);
+			if (!res.success) {
+				result.error = res.responseCode + " " + res.responseString;
+				return result;
+			}
+
+			start = System.nanoTime();
+			sink.accept(res.responseString);
+			result.ingestNanos = System.nanoTime() - start;
+			metrics.recordPhase(Metrics.PHASE_PROCESS_ORDERS, result.ingestNanos);
+			result.orders = res.itemCount;
+			metrics.increment(Metrics.ORDERS_DOWNLOADED, res.itemCount);
+
+			progress.record(begDate, endDate, res.itemCount);
+		} catch (IOException | HillsException | RuntimeException e) {
+			result.error = e.toString();
+		}
+		return result;
+	}
+
+	/**
+	 * Результат загрузки одного интервала
+	 */
+	private static class SliceResult {
+		final String begDate;
+		final String endDate;
+		int orders = 0;
+		long fetchNanos = 0;
+		long ingestNanos = 0;
+		String error = null;
+
+		SliceResult(String begDate, String endDate) {
+			this.begDate = begDate;
+			this.endDate = endDate;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package ru.evenx.hills;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Дисковый кэш страниц заказов для условных запросов.
+ * Для каждого номера страницы хранится текст страницы, полученный при прошлой успешной загрузке,
+ * ее адрес, ETag, Last-Modified и хэш SHA-256. Ключом служит только номер страницы: диапазон дат загрузки
+ * (от hills.get_last_order_date до завтрашнего дня) сдвигается каждый день, а ключ по полному адресу
+ * давал бы попадания только при повторных запусках в тот же день.
+ * Если адрес страницы совпадает с сохраненным и сервис поддерживает ETag или Last-Modified, страница
+ * запрашивается условно и при ответе 304 берется из кэша; иначе неизменившаяся страница определяется
+ * по совпадению хэша списка заказов (поля count, next и previous в хэш не входят: они меняются на всех
+ * страницах при появлении новых заказов).
+ * Неизменившиеся страницы не разбираются и не передаются в БД: их заказы уже записаны.
+ * Новые страницы сохраняются в файлы *.new и становятся действующими только после {@link #commit()},
+ * который вызывается после успешной записи всех заказов; при этом удаляются страницы,
+ * не запрашивавшиеся в этой загрузке.
+ *
+ */
+class OrderPageCache {
+
+	private static final String SEPARATOR = "\t";
+	private static final String META = ".meta";
+	private static final String PAGE = ".page";
+	private static final String NEW = ".new";
+
+	private final File dir;
+	/* Страницы, запрошенные в этой загрузке */
+	private final Set<String> touched = ConcurrentHashMap.newKeySet();
+	/* Новые и изменившиеся страницы, ожидающие фиксации */
+	private final Map<String, Entry> updates = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	/**
+	 * @param dir - каталог кэша
+	 * @throws IOException
+	 */
+	public OrderPageCache(File dir) throws IOException {
+		this.dir = dir;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+	}
+
+	/**
+	 * Сохраненная страница
+	 * @param page - номер страницы
+	 * @return описание страницы или null, если страницы нет в кэше
+	 * @throws IOException
+	 */
+	public Entry lookup(String page) throws IOException {
+		String name = name(page);
+		File meta = new File(dir, name + META);
+		if (!meta.exists() || !new File(dir, name + PAGE).exists()) {
+			return null;
+		}
+		String[] fields = new String(Files.readAllBytes(meta.toPath()), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+		if (fields.length != 4) {
+			return null;
+		}
+		return new Entry(name, fields[0], emptyToNull(fields[1]), emptyToNull(fields[2]), fields[3]);
+	}
+
+	/**
+	 * Страница не изменилась по ответу 304
+	 * @param entry - сохраненная страница
+	 * @return текст сохраненной страницы
+	 * @throws IOException
+	 */
+	public String notModified(Entry entry) throws IOException {
+		byte[] page = Files.readAllBytes(new File(dir, entry.name + PAGE).toPath());
+		touched.add(entry.name);
+		hits.incrementAndGet();
+		notModified.incrementAndGet();
+		bytesSaved.addAndGet(page.length);
+		return new String(page, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Запоминает полученную страницу
+	 * @param page - номер страницы
+	 * @param url - адрес страницы
+	 * @param entry - сохраненная страница или null
+	 * @param etag - заголовок ETag ответа (может отсутствовать)
+	 * @param lastModified - заголовок Last-Modified ответа (может отсутствовать)
+	 * @param text - текст страницы
+	 * @return true, если страница совпадает с сохраненной
+	 * @throws IOException
+	 */
+	public boolean store(String page, String url, Entry entry, String etag, String lastModified, String text) 
+			throws IOException {
+		String name = name(page);
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		String hash = contentHash(text);
+		touched.add(name);
+		boolean unchanged = entry != null && entry.hash.equals(hash);
+		if (unchanged) {
+			hits.incrementAndGet();
+			bytesSaved.addAndGet(bytes.length);
+			if (url.equals(entry.url) && equal(etag, entry.etag) && equal(lastModified, entry.lastModified)) {
+				return true;
+			}
+		} else {
+			misses.incrementAndGet();
+		}
+		/* сохраненная страница должна соответствовать ETag и Last-Modified, по которым сервис ответит 304 */
+		Files.write(new File(dir, name + PAGE + NEW).toPath(), bytes);
+		updates.put(name, new Entry(name, url, etag, lastModified, hash));
+		return unchanged;
+	}
+
+	/**
+	 * Фиксирует страницы этой загрузки и удаляет остальные
+	 * @throws IOException
+	 */
+	public synchronized void commit() throws IOException {
+		for (Entry entry : updates.values()) {
+			File page = new File(dir, entry.name + PAGE + NEW);
+			if (page.exists()) {
+				Files.move(page.toPath(), new File(dir, entry.name + PAGE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			File tmp = new File(dir, entry.name + META + NEW);
+			Files.write(tmp.toPath(), (entry.url + SEPARATOR + nvl(entry.etag) + SEPARATOR + nvl(entry.lastModified) 
+					+ SEPARATOR + entry.hash).getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp.toPath(), new File(dir, entry.name + META).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		updates.clear();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				int dot = name.indexOf('.');
+				if (dot > 0 && !touched.contains(name.substring(0, dot))) {
+					Files.deleteIfExists(file.toPath());
+				}
+			}
+		}
+		touched.clear();
+	}
+
+	/**
+	 * Отменяет страницы этой загрузки; кэш остается в состоянии прошлой успешной загрузки
+	 */
+	public synchronized void rollback() {
+		for (String name : updates.keySet()) {
+			new File(dir, name + PAGE + NEW).delete();
+		}
+		updates.clear();
+		touched.clear();
+	}
+
+	/**
+	 * Количество неизменившихся страниц (по ответу 304 или по хэшу)
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Количество новых и изменившихся страниц
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Количество страниц, не загруженных повторно благодаря ответу 304
+	 */
+	public long getNotModified() {
+		return notModified.get();
+	}
+
+	/**
+	 * Объем неизменившихся страниц, которые не разбирались и не передавались в БД, байт
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	/**
+	 * Доля неизменившихся страниц, %
+	 */
+	public long getHitRate() {
+		long total = hits.get() + misses.get();
+		return total == 0 ? 0 : hits.get() * 100 / total;
+	}
+
+	/**
+	 * Хэш списка заказов страницы: текст, начиная с поля results, или вся страница, если поля нет
+	 */
+	static String contentHash(String page) {
+		int results = page.indexOf("\"results\"");
+		return hash((results >= 0 ? page.substring(results) : page).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String name(String page) {
+		return hash(("page=" + page).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String hash(byte[] bytes) {
+		try {
+			return String.format("%064x", new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(bytes)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static String nvl(String value) {
+		return value == null ? "" : value;
+	}
+
+	private static String emptyToNull(String value) {
+		return value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Описание сохраненной страницы
+	 */
+	static class Entry {
+		final String name;
+		/* Адрес страницы: условный запрос отправляется только по тому же адресу */
+		final String url;
+		final String etag;
+		final String lastModified;
+		final String hash;
+
+		Entry(String name, String url, String etag, String lastModified, String hash) {
+			this.name = name;
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Постраничная загрузка заказов.
+ * Первая страница запрашивается синхронно, по ней определяется общее количество страниц,
+ * остальные страницы загружаются параллельно пулом потоков ограниченного размера.
+ * Результаты объединяются в порядке номеров страниц.
+ * При использовании кэша заказы неизменившихся страниц в результат не включаются.
+ *
+ */
+class OrderPageFetcher {
+
+	private final HillsGateway gateway;
+	private final int threads;
+	private final OrderPageCache cache;
+
+	/**
+	 * @param gateway - шлюз к сервису Hills
+	 * @param threads - максимальное количество одновременно загружаемых страниц
+	 */
+	public OrderPageFetcher(HillsGateway gateway, int threads) {
+		this(gateway, threads, null);
+	}
+
+	/**
+	 * @param gateway - шлюз к сервису Hills
+	 * @param threads - максимальное количество одновременно загружаемых страниц
+	 * @param cache - кэш страниц (может отсутствовать)
+	 */
+	public OrderPageFetcher(HillsGateway gateway, int threads, OrderPageCache cache) {
+		this.gateway = gateway;
+		this.threads = Math.max(1, threads);
+		this.cache = cache;
+	}
+
+	/**
+	 * Количество страниц по ответу на первую страницу
+	 * @param firstPage - первая страница заказов
+	 * @return общее количество страниц
+	 */
+	static int pageCount(JsonObject firstPage) {
+
+		JsonElement next = firstPage.get("next");
+		if (next == null || next.isJsonNull()) {
+			return 1;
+		}
+
+		int pageSize = firstPage.getAsJsonArray("results").size();
+		int count = firstPage.get("count").getAsInt();
+		if (pageSize == 0) {
+			return 1;
+		}
+		return (count + pageSize - 1) / pageSize;
+	}
+
+	/**
+	 * Загрузка всех заказов в диапазоне дат
+	 * @param begDate - начальная дата заказов ("YYYY-MM-DD")
+	 * @param endDate - конечная дата заказов ("YYYY-MM-DD")
+	 * @return результат обращения к сервису, при успехе содержит объединенный список заказов (JSON).
+	 * При ошибке загрузки любой страницы возвращается результат этой страницы,
+	 * загрузка остальных страниц прерывается.
+	 * @throws IOException
+	 */
+	public GatewayResult fetch(final String begDate, final String endDate) throws IOException {
+
+		JsonParser parser = new JsonParser();
+
+		GatewayResult res = gateway.orderListPaged("1", begDate, endDate, cache);
+		if (!res.success) {
+			return res;
+		}
+
+		/* первая страница разбирается всегда: по ней определяется количество страниц */
+		JsonObject itemObjectAccum = parser.parse(res.responseString).getAsJsonObject();
+		int pages = pageCount(itemObjectAccum);
+		itemObjectAccum.remove("next");
+		itemObjectAccum.remove("previous");
+		if (res.notModified) {
+			itemObjectAccum.add("results", new JsonArray());
+			res.notModified = false;
+		}
+
+		if (pages < 2) {
+			res.itemCount = itemObjectAccum.getAsJsonArray("results").size();
+			res.responseString = itemObjectAccum.toString();
+			return res;
+		}
+
+		JsonArray[] pageResults = new JsonArray[pages + 1];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, pages - 1));
+		List<Future<PageResult>> futures = new ArrayList<Future<PageResult>>();
+		try {
+			CompletionService<PageResult> completion = new ExecutorCompletionService<PageResult>(executor);
+			for (int page = 2; page <= pages; page++) {
+				final int pageNumber = page;
+				futures.add(completion.submit(new Callable<PageResult>() {
+					@Override
+					public PageResult call() throws IOException {
+						return new PageResult(pageNumber,
+								gateway.orderListPaged(String.valueOf(pageNumber), begDate, endDate, cache));
+					}
+				}));
+			}
+
+			for (int i = 2; i <= pages; i++) {
+				PageResult pageResult = completion.take().get();
+				if (!pageResult.result.success) {
+					return pageResult.result;
+				}
+				pageResults[pageResult.page] = pageResult.result.notModified ? new JsonArray()
+						: new JsonParser().parse(pageResult.result.responseString)
+							.getAsJsonObject().getAsJsonArray("results");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Order pages download interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Order page download exception", e.getCause());
+		} finally {
+			for (Future<PageResult> future : futures) {
+				future.cancel(true);
+			}
+			executor.shutdownNow();
+		}
+
+		JsonArray results = itemObjectAccum.getAsJsonArray("results");
+		for (int page = 2; page <= pages; page++) {
+			results.addAll(pageResults[page]);
+		}
+
+		res.itemCount = results.size();
+		res.responseString = itemObjectAccum.toString();
+		return res;
+	}
+
+	/**
+	 * Результат загрузки одной страницы
+	 */
+	private static class PageResult {
+		final int page;
+		final GatewayResult result;
+
+		PageResult(int page, GatewayResult result) {
+			this.page = page;
+			this.result = result;
+		}
+	}
+}
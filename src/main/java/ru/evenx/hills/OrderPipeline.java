@@ -0,0 +1,237 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Конвейерная загрузка заказов.
+ * Поток-поставщик загружает страницы заказов и складывает пакеты в очередь ограниченного размера,
+ * вызывающий поток одновременно передает пакеты в БД. Таким образом загрузка следующих страниц
+ * идет параллельно с обработкой предыдущих.
+ * После записи каждого пакета сохраняется отметка последней полностью записанной страницы
+ * ({@link DownloadCheckpoint}), по которой прерванная загрузка продолжается при следующем запуске.
+ * При использовании кэша ({@link OrderPageCache}) неизменившиеся страницы не разбираются и не передаются в БД.
+ *
+ */
+class OrderPipeline {
+
+	private static final Logger log = LoggerFactory.getLogger("ru.evenx.logback");
+
+	/* Признак окончания загрузки в очереди */
+	private static final Batch END_OF_DATA = new Batch(new JsonArray(), 0);
+
+	private final HillsGateway gateway;
+	private final int batchSize;
+	private final BlockingQueue<Batch> queue;
+	private final OrderPageCache cache;
+
+	private volatile Throwable producerError = null;
+	/* Время потока-поставщика; читается вызывающим потоком, в том числе до окончания поставщика при ошибке записи */
+	private final AtomicLong producerBlockedNanos = new AtomicLong();
+	private final AtomicLong fetchNanos = new AtomicLong();
+	private long consumerBlockedNanos = 0;
+	private long ingestNanos = 0;
+	private int batches = 0;
+	private int orders = 0;
+
+	/**
+	 * @param gateway - шлюз к сервису Hills
+	 * @param batchSize - размер пакета заказов; 0 - пакетом является страница
+	 * @param queueSize - максимальное количество пакетов, ожидающих записи в БД
+	 */
+	public OrderPipeline(HillsGateway gateway, int batchSize, int queueSize) {
+		this(gateway, batchSize, queueSize, null);
+	}
+
+	/**
+	 * @param gateway - шлюз к сервису Hills
+	 * @param batchSize - размер пакета заказов; 0 - пакетом является страница
+	 * @param queueSize - максимальное количество пакетов, ожидающих записи в БД
+	 * @param cache - кэш страниц (может отсутствовать)
+	 */
+	public OrderPipeline(HillsGateway gateway, int batchSize, int queueSize, OrderPageCache cache) {
+		this.gateway = gateway;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<Batch>(Math.max(1, queueSize));
+		this.cache = cache;
+	}
+
+	/**
+	 * Выполняет загрузку заказов в диапазоне дат
+	 * @param begDate - начальная дата заказов ("YYYY-MM-DD")
+	 * @param endDate - конечная дата заказов ("YYYY-MM-DD")
+	 * @param sink - приемник пакетов заказов
+	 * @throws HillsException
+	 */
+	public void run(String begDate, String endDate, OrderSink sink) throws HillsException {
+		run(begDate, endDate, 1, sink, null);
+	}
+
+	/**
+	 * Выполняет загрузку заказов в диапазоне дат, начиная с заданной страницы
+	 * @param begDate - начальная дата заказов ("YYYY-MM-DD")
+	 * @param endDate - конечная дата заказов ("YYYY-MM-DD")
+	 * @param firstPage - номер первой загружаемой страницы
+	 * @param sink - приемник пакетов заказов
+	 * @param checkpoint - отметка записанных страниц (может отсутствовать)
+	 * @throws HillsException
+	 */
+	public void run(final String begDate, final String endDate, final int firstPage, OrderSink sink, 
+			DownloadCheckpoint checkpoint) throws HillsException {
+
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produce(begDate, endDate, firstPage);
+			}
+		}, "hills-order-producer");
+		producer.setDaemon(true);
+		producer.start();
+
+		try {
+			while (true) {
+				long start = System.nanoTime();
+				Batch batch = queue.take();
+				consumerBlockedNanos += System.nanoTime() - start;
+
+				if (batch == END_OF_DATA) {
+					break;
+				}
+
+				start = System.nanoTime();
+				JsonObject document = new JsonObject();
+				document.add("results", batch.orders);
+				sink.accept(document.toString());
+				ingestNanos += System.nanoTime() - start;
+				batches++;
+				orders += batch.orders.size();
+
+				if (checkpoint != null && batch.lastPage > checkpoint.getPage()) {
+					saveCheckpoint(checkpoint, begDate, batch.lastPage);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HillsException("Order pipeline interrupted", e);
+		} finally {
+			producer.interrupt();
+			logStatistics();
+			Metrics metrics = gateway.getMetrics();
+			metrics.recordPhase(Metrics.PHASE_PAGE_FETCH, fetchNanos.get());
+			metrics.recordPhase(Metrics.PHASE_PROCESS_ORDERS, ingestNanos);
+			metrics.increment(Metrics.ORDERS_DOWNLOADED, orders);
+		}
+
+		if (producerError instanceof HillsException) {
+			throw (HillsException) producerError;
+		} else if (producerError instanceof Error) {
+			throw (Error) producerError;
+		} else if (producerError != null) {
+			throw new HillsException(producerError.getMessage(), producerError);
+		}
+	}
+
+	private void saveCheckpoint(DownloadCheckpoint checkpoint, String begDate, int page) {
+		try {
+			checkpoint.save(begDate, page);
+		} catch (IOException e) {
+			log.error("Save download checkpoint exception", e);
+		}
+	}
+
+	private void produce(String begDate, String endDate, int firstPage) {
+		JsonParser parser = new JsonParser();
+		JsonArray batch = new JsonArray();
+		int page = firstPage;
+		boolean interrupted = false;
+		try {
+			boolean hasNext = true;
+			for (; hasNext; page++) {
+				long start = System.nanoTime();
+				GatewayResult res = gateway.orderListPaged(String.valueOf(page), begDate, endDate, cache);
+				if (!res.success) {
+					throw new HillsException("Get orders list exception : " + res.responseString);
+				}
+				if (res.notModified) {
+					hasNext = HillsGateway.hasNextPage(res.responseString);
+					fetchNanos.addAndGet(System.nanoTime() - start);
+					continue;
+				}
+				JsonObject itemObject = parser.parse(res.responseString).getAsJsonObject();
+				fetchNanos.addAndGet(System.nanoTime() - start);
+				hasNext = !itemObject.get("next").isJsonNull();
+
+				JsonArray results = itemObject.getAsJsonArray("results");
+				for (int i = 0; i < results.size(); i++) {
+					batch.add(results.get(i));
+					if (batchSize > 0 && batch.size() >= batchSize) {
+						/* страница записана полностью, если пакет закончился на ее последнем заказе */
+						put(new Batch(batch, i == results.size() - 1 ? page : page - 1));
+						batch = new JsonArray();
+					}
+				}
+				if (batchSize <= 0 && batch.size() > 0) {
+					put(new Batch(batch, page));
+					batch = new JsonArray();
+				}
+			}
+			if (batch.size() > 0) {
+				put(new Batch(batch, page - 1));
+			}
+		} catch (InterruptedException e) {
+			/* вызывающий поток уже не ждет пакетов */
+			interrupted = true;
+		} catch (Throwable e) {
+			producerError = e;
+		} finally {
+			/* признак окончания ставится при любой ошибке, иначе вызывающий поток ждет пакет бесконечно */
+			if (!interrupted) {
+				try {
+					queue.put(END_OF_DATA);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private void put(Batch batch) throws InterruptedException {
+		long start = System.nanoTime();
+		queue.put(batch);
+		producerBlockedNanos.addAndGet(System.nanoTime() - start);
+	}
+
+	private void logStatistics() {
+		log.info(String.format("Pipeline: orders %1$d, batches %2$d, fetch %3$d ms, producer blocked %4$d ms, "
+				+ "ingest %5$d ms, consumer blocked %6$d ms",
+				orders, batches,
+				TimeUnit.NANOSECONDS.toMillis(fetchNanos.get()),
+				TimeUnit.NANOSECONDS.toMillis(producerBlockedNanos.get()),
+				TimeUnit.NANOSECONDS.toMillis(ingestNanos),
+				TimeUnit.NANOSECONDS.toMillis(consumerBlockedNanos)));
+	}
+
+	/**
+	 * Пакет заказов в очереди конвейера
+	 */
+	private static class Batch {
+		final JsonArray orders;
+		/* Последняя страница, все заказы которой вошли в этот или предыдущие пакеты */
+		final int lastPage;
+
+		Batch(JsonArray orders, int lastPage) {
+			this.orders = orders;
+			this.lastPage = lastPage;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package ru.evenx.hills;
+
+/**
+ * Приемник загруженных заказов
+ *
+ */
+interface OrderSink {
+
+	/**
+	 * Записывает пакет заказов
+	 * @param orders - пакет заказов в формате {"results":[...]}
+	 * @throws HillsException
+	 */
+	void accept(String orders) throws HillsException;
+
+	/**
+	 * Завершает загрузку после записи всех пакетов
+	 * @throws HillsException
+	 */
+	void complete() throws HillsException;
+}
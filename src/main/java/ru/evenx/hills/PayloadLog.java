@@ -0,0 +1,58 @@
+package ru.evenx.hills;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Запись содержимого запросов и ответов сервиса.
+ * В основной лог попадает только начало содержимого, полностью оно пишется в отдельный архив
+ * (логгер ru.evenx.payload, см. logback.xml) - каждое sample-е сообщение.
+ * Если логгер архива отключен, полное содержимое не записывается вовсе.
+ *
+ */
+class PayloadLog {
+
+	private static final Logger log = LoggerFactory.getLogger("ru.evenx.logback");
+	private static final Logger archive = LoggerFactory.getLogger("ru.evenx.payload");
+
+	private final int limit;
+	private final int sample;
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * @param limit - количество символов содержимого в основном логе; отрицательное - без ограничения
+	 * @param sample - в архив пишется каждое sample-е сообщение; 0 - архив не ведется
+	 */
+	public PayloadLog(int limit, int sample) {
+		this.limit = limit;
+		this.sample = sample;
+	}
+
+	/**
+	 * Записывает содержимое
+	 * @param label - название ("request", "response" и т.п.)
+	 * @param payload - содержимое
+	 */
+	public void log(String label, String payload) {
+		if (payload != null && sample > 0 && archive.isInfoEnabled() && count.getAndIncrement() % sample == 0) {
+			archive.info("{} = {}", label, payload);
+		}
+		if (log.isInfoEnabled()) {
+			log.info(label + " = " + abbreviate(payload, limit));
+		}
+	}
+
+	/**
+	 * Обрезает содержимое до заданной длины, указывая полную длину
+	 * @param payload - содержимое
+	 * @param limit - максимальная длина; отрицательная - без ограничения
+	 */
+	static String abbreviate(String payload, int limit) {
+		if (payload == null || limit < 0 || payload.length() <= limit) {
+			return payload;
+		}
+		return payload.substring(0, limit) + "... (" + payload.length() + " chars)";
+	}
+}
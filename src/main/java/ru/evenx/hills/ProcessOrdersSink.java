@@ -0,0 +1,66 @@
+package ru.evenx.hills;
+
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+/**
+ * Запись заказов вызовом hills.store_orders: пакет передается в БД одним CLOB,
+ * разбор и запись заказов выполняются в PL/SQL.
+ * После записи всех пакетов создание документов выполняет hills.process_downloaded_orders.
+ *
+ */
+class ProcessOrdersSink implements OrderSink {
+
+	private final DataSource dataSource;
+
+	/**
+	 * @param dataSource - пул подключений к БД СКАТ
+	 */
+	public ProcessOrdersSink(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	@Override
+	public void accept(String orders) throws HillsException {
+		try (Connection dbcon = dataSource.getConnection()) {
+			Clob clob = dbcon.createClob();
+			try {
+				clob.setString(1, orders);
+				accept(dbcon, clob);
+			} finally {
+				clob.free();
+			}
+		} catch (SQLException e) {
+			throw new HillsException("Call store_orders() exception", e);
+		}
+	}
+
+	/**
+	 * Записывает пакет заказов, уже подготовленный в CLOB
+	 * @param dbcon - подключение, в котором создан CLOB
+	 * @param orders - пакет заказов в формате {"results":[...]}
+	 * @throws HillsException
+	 */
+	public void accept(Connection dbcon, Clob orders) throws HillsException {
+		try (CallableStatement stmt = dbcon.prepareCall("{ call hills.store_orders(?) }")) {
+			stmt.setClob(1, orders);
+			stmt.execute();
+		} catch (SQLException e) {
+			throw new HillsException("Call store_orders() exception", e);
+		}
+	}
+
+	@Override
+	public void complete() throws HillsException {
+		try (Connection dbcon = dataSource.getConnection();
+				CallableStatement stmt = dbcon.prepareCall("{ call hills.process_downloaded_orders }")) {
+			stmt.execute();
+		} catch (SQLException e) {
+			throw new HillsException("Call process_downloaded_orders() exception", e);
+		}
+	}
+}
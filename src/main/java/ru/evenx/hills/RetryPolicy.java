@@ -0,0 +1,95 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Повтор запросов к сервису при временных ошибках: ответы 5xx и 429, таймауты,
+ * отказ и сброс соединения. Пауза перед повтором растет экспоненциально
+ * и выбирается случайно в пределах [половина, полная] величины, чтобы параллельные
+ * потоки не повторяли запросы одновременно.
+ *
+ */
+class RetryPolicy {
+
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int HTTP_SERVER_ERROR = 500;
+
+	private final int retries;
+	private final long baseDelay;
+	private final long maxDelay;
+
+	/**
+	 * @param retries - количество повторов
+	 * @param baseDelay - пауза перед первым повтором, мс
+	 * @param maxDelay - максимальная пауза, мс
+	 */
+	public RetryPolicy(int retries, long baseDelay, long maxDelay) {
+		this.retries = Math.max(0, retries);
+		this.baseDelay = Math.max(1, baseDelay);
+		this.maxDelay = Math.max(this.baseDelay, maxDelay);
+	}
+
+	/**
+	 * Нужно ли повторить запрос, завершившийся ответом с кодом statusCode
+	 * @param attempt - номер выполненной попытки, начиная с 0
+	 */
+	public boolean shouldRetry(int attempt, int statusCode) {
+		return attempt < retries && isTransient(statusCode);
+	}
+
+	/**
+	 * Нужно ли повторить запрос, завершившийся ошибкой ввода-вывода
+	 * @param attempt - номер выполненной попытки, начиная с 0
+	 */
+	public boolean shouldRetry(int attempt, IOException e) {
+		return attempt < retries && isTransient(e);
+	}
+
+	/**
+	 * Ответы 5xx и 429; остальные ошибки (4xx) при повторе не исчезнут
+	 */
+	static boolean isTransient(int statusCode) {
+		return statusCode >= HTTP_SERVER_ERROR || statusCode == HTTP_TOO_MANY_REQUESTS;
+	}
+
+	/**
+	 * Таймауты, отказ и сброс соединения, закрытие соединения сервером без ответа
+	 */
+	static boolean isTransient(IOException e) {
+		return e instanceof SocketTimeoutException
+				|| e instanceof ConnectTimeoutException
+				|| e instanceof NoHttpResponseException
+				|| e instanceof SocketException;
+	}
+
+	/**
+	 * Пауза перед повтором
+	 * @param attempt - номер выполненной попытки, начиная с 0
+	 * @return пауза, мс
+	 */
+	long delay(int attempt) {
+		long cap = Math.min(maxDelay, baseDelay << Math.min(attempt, 20));
+		return cap / 2 + ThreadLocalRandom.current().nextLong(cap - cap / 2 + 1);
+	}
+
+	/**
+	 * Ожидает перед повтором
+	 * @param attempt - номер выполненной попытки, начиная с 0
+	 * @throws InterruptedIOException - если ожидание прервано
+	 */
+	public void pause(int attempt) throws InterruptedIOException {
+		try {
+			Thread.sleep(delay(attempt));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Retry interrupted");
+		}
+	}
+}
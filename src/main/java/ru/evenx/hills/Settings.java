@@ -1,71 +1,247 @@
 package ru.evenx.hills;
 
+import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.bind.annotation.XmlAttribute;
-import javax.xml.bind.annotation.XmlElement;
-import javax.xml.bind.annotation.XmlRootElement;
-import javax.xml.bind.annotation.XmlValue;
-
 /**
- * Классы для загрузки настроек из XML-файла
+ * Классы для загрузки настроек из XML-файла (см. {@link SettingsReader}).
+ * Имена открытых полей совпадают с именами атрибутов и элементов XML,
+ * списки элементов называются во множественном числе (tenant - tenants).
  *
  */
-@XmlRootElement(name = "settings")
 class Settings {
-	@XmlElement(name = "db")
 	public Db db;
-	@XmlElement(name = "gateway")
 	public GatewaySettings gateway;
-	@XmlElement(name = "operation")
 	public Operation operation;
-	@XmlElement(name = "logmail")
 	public MailSettings logmail;
+	public DownloadSettings download = new DownloadSettings();
+	public BackfillSettings backfill = new BackfillSettings();
+	public StatusSettings status = new StatusSettings();
+	public UploadSettings upload = new UploadSettings();
+	public FeedSettings feed = new FeedSettings();
+	public DaemonSettings daemon = new DaemonSettings();
+	public MetricsSettings metrics = new MetricsSettings();
+	public LoggingSettings logging = new LoggingSettings();
+	/* Потребители (БД и токены), обслуживаемые одним процессом одновременно */
+	public List<TenantSettings> tenants = new ArrayList<TenantSettings>();
+	
+	/**
+	 * Настройки потребителя: разделы, заданные в элементе tenant, заменяют общие,
+	 * остальные берутся из общих настроек
+	 * @param tenant - настройки потребителя
+	 */
+	Settings forTenant(TenantSettings tenant) {
+		Settings retVal = new Settings();
+		retVal.db = tenant.db != null ? tenant.db : db;
+		retVal.gateway = tenant.gateway != null ? tenant.gateway : gateway;
+		retVal.operation = operation;
+		retVal.logmail = logmail;
+		retVal.download = tenant.download != null ? tenant.download : download;
+		retVal.backfill = tenant.backfill != null ? tenant.backfill : backfill;
+		retVal.status = tenant.status != null ? tenant.status : status;
+		retVal.upload = tenant.upload != null ? tenant.upload : upload;
+		retVal.feed = tenant.feed != null ? tenant.feed : feed;
+		retVal.daemon = daemon;
+		retVal.metrics = tenant.metrics != null ? tenant.metrics : metrics;
+		retVal.logging = logging;
+		return retVal;
+	}
+	
+	/**
+	 * Преобразует числовой атрибут настроек
+	 * @param value - значение атрибута
+	 * @param defaultValue - значение по умолчанию, если атрибут не задан
+	 */
+	static int toInt(String value, int defaultValue) {
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Integer.parseInt(value.trim());
+	}
+}
+
+class TenantSettings {
+	/* Имя потребителя; добавляется к именам файлов отметок, журналов и показателей */
+	public String name;
+	public Db db;
+	public GatewaySettings gateway;
+	/* Операции потребителя, выполняются по порядку; по умолчанию - общая операция */
+	public List<Operation> operations = new ArrayList<Operation>();
+	public DownloadSettings download;
+	public BackfillSettings backfill;
+	public StatusSettings status;
+	public UploadSettings upload;
+	public FeedSettings feed;
+	public MetricsSettings metrics;
 }
 
 class Db {
-	@XmlAttribute
 	public String name;
-	@XmlAttribute
 	public String login;
-	@XmlAttribute
 	public String password;
+	/* Строка подключения JDBC; по умолчанию jdbc:oracle:thin:@localhost:1521:ODB */
+	public String url;
+	/* Максимальное количество подключений в пуле */
+	public String poolSize;
+	/* Размер кэша подготовленных запросов на одно подключение */
+	public String statementCache;
 }
 
 class Operation {
-    @XmlValue
     public String value;
 }
 
+class DownloadSettings {
+	/* Режим загрузки заказов: default - объединение страниц в памяти, streaming - потоковая запись в CLOB,
+	   pipelined - запись в БД пакетами параллельно с загрузкой страниц */
+	public String mode;
+	/* Размер пакета заказов в режиме pipelined; 0 - пакетом является страница */
+	public String batch;
+	/* Количество пакетов, ожидающих записи в БД, в режиме pipelined */
+	public String queue;
+	/* Запись заказов в БД: plsql - hills.store_orders, jdbc - пакетная запись на стороне Java;
+	   документы создаются одним вызовом hills.process_downloaded_orders после записи всех пакетов
+	   (режим streaming всегда использует hills.store_orders) */
+	public String sink;
+	/* Файл отметки незавершенной загрузки, по умолчанию hills-download.checkpoint; отметка ведется только
+	   в режиме pipelined и хранит номер страницы (см. ограничения в DownloadCheckpoint) */
+	public String checkpoint;
+	/* Каталог кэша страниц заказов в режимах default и pipelined, по умолчанию hills-orders.cache;
+	   пустое значение отключает кэш, и заказы всех страниц передаются в БД */
+	public String cache;
+}
+
+class BackfillSettings {
+	/* Начальная дата дозагрузки заказов ("YYYY-MM-DD"), обязательна для операции backfill */
+	public String from;
+	/* Конечная дата дозагрузки ("YYYY-MM-DD"), по умолчанию завтрашний день */
+	public String to;
+	/* Длина интервала: day, week или количество дней; по умолчанию day */
+	public String slice;
+	/* Количество одновременно загружаемых интервалов */
+	public String threads;
+	/* Файл хода дозагрузки, по умолчанию hills-backfill.progress */
+	public String progress;
+}
+
+class StatusSettings {
+	/* Количество одновременно отправляемых изменений статусов заказов */
+	public String threads;
+	/* Файл журнала отправленных статусов, по умолчанию hills-status.journal;
+	   пустое значение отключает журнал, и статусы отправляются всегда */
+	public String journal;
+	/* Инкрементальный режим: выбираются только заказы, загруженные после отметки прошлого запуска */
+	public String incremental;
+	/* Файл отметки инкрементального режима */
+	public String watermark;
+	/* Количество дней до отметки, за которые заказы проверяются повторно */
+	public String lookback;
+	/* Количество строк, получаемых из БД за одно обращение */
+	public String fetchSize;
+}
+
+class UploadSettings {
+	/* Выгружать только изменившиеся позиции прайс-листа */
+	public String delta;
+	/* Файл снимка последнего выгруженного прайс-листа */
+	public String snapshot;
+	/* Период полной выгрузки прайс-листа в часах */
+	public String resync;
+	/* Количество записей в одном запросе; 0 - прайс-лист выгружается одним запросом */
+	public String chunk;
+	/* Количество одновременно отправляемых частей */
+	public String threads;
+	/* Количество повторов части при временной ошибке (5xx, 429, сбой соединения);
+	   паузы между повторами берутся из настроек шлюза */
+	public String retries;
+	/* Сжимать тело запроса (gzip) */
+	public String gzip;
+	/* Передавать прайс-лист из CLOB в запрос потоком (без delta и chunk) */
+	public String streaming;
+	/* Источник прайс-листа: plsql - hills.get_upload_request, jdbc - запрос на стороне Java */
+	public String source;
+	/* Код формы цен для источника jdbc; по умолчанию определяется по имени БД */
+	public String priceForm;
+	/* Количество строк, получаемых из БД за одно обращение, для источника jdbc */
+	public String fetchSize;
+}
+
+class FeedSettings {
+	/* Окно объединения изменений одной позиции в секундах, по умолчанию 30 */
+	public String window;
+	/* Максимальное количество позиций в одном запросе, по умолчанию 500 */
+	public String batch;
+	/* Файл отметки выгруженных изменений, по умолчанию hills-stock-feed.watermark */
+	public String watermark;
+	/* Файл снимка выгруженного состояния, по умолчанию hills-stock-feed.snapshot */
+	public String snapshot;
+	/* Период сверки полного прайс-листа со снимком в часах (удаленные позиции получают нулевой остаток),
+	   по умолчанию 24; 0 - сверка не выполняется */
+	public String rescan;
+}
+
+class DaemonSettings {
+	/* Интервал между выгрузками прайс-листа в секундах; 0 - выгрузка не выполняется */
+	public String upload;
+	/* Интервал между загрузками заказов в секундах; 0 - загрузка не выполняется */
+	public String download;
+	/* Интервал опроса изменений остатков и цен в секундах; 0 - выгрузка по изменениям не выполняется */
+	public String feed;
+	/* Время ожидания завершения выполняющихся операций при остановке, в секундах */
+	public String shutdownTimeout;
+}
+
+class MetricsSettings {
+	/* Файл показателей, перезаписываемый после каждой операции; *.json - JSON, иначе формат Prometheus */
+	public String file;
+	/* Порт HTTP для получения показателей (/metrics, /metrics.json) в режиме постоянной работы; 0 - не используется */
+	public String port;
+}
+
+class LoggingSettings {
+	/* Количество символов содержимого запросов и ответов в основном логе; -1 - без ограничения, по умолчанию 1000 */
+	public String payloadLimit;
+	/* В архив содержимого пишется каждый N-й запрос или ответ; 0 - архив не ведется, по умолчанию 1 */
+	public String payloadSample;
+}
+
 class MailSettings {
-	@XmlAttribute
 	public String auth;
-	@XmlAttribute
 	public String ssl;
-	@XmlAttribute
 	public String user;
-	@XmlAttribute
 	public String pass;
-	@XmlAttribute
 	public String host;
-	@XmlAttribute
 	public String port;
-	@XmlAttribute
 	public String from;
-	@XmlAttribute
 	public String subject;
-	@XmlElement(name = "recipient")
 	public List<Recipient> recipients;
 }
 
 class Recipient {
-    @XmlValue
     public String value;
 }
 
 class GatewaySettings {
-	@XmlAttribute
     public String url;
-	@XmlAttribute
     public String token;
+	/* Количество потоков загрузки страниц заказов */
+    public String threads;
+	/* Максимальное количество HTTP-соединений на маршрут */
+    public String maxPerRoute;
+	/* Максимальное общее количество HTTP-соединений */
+    public String maxConnections;
+	/* Таймаут установления соединения в секундах */
+    public String connectTimeout;
+	/* Таймаут ожидания данных в секундах */
+    public String socketTimeout;
+	/* Время удержания неиспользуемого соединения в секундах */
+    public String keepAlive;
+	/* Запрашивать сжатые ответы (Accept-Encoding: gzip), по умолчанию true */
+    public String compression;
+	/* Количество повторов запроса при временной ошибке (5xx, 429, таймаут, сброс соединения), по умолчанию 3 */
+    public String retries;
+	/* Пауза перед первым повтором в миллисекундах, далее удваивается; по умолчанию 500 */
+    public String retryDelay;
+	/* Максимальная пауза между повторами в миллисекундах, по умолчанию 30000 */
+    public String retryMaxDelay;
 }
\ No newline at end of file
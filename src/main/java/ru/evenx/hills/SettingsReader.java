@@ -0,0 +1,150 @@
+package ru.evenx.hills;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Разбор файла настроек потоковым парсером StAX, без построения JAXBContext при каждом запуске.
+ * Элементы и атрибуты XML сопоставляются открытым полям классов настроек по имени:
+ * атрибут - строковому полю, вложенный элемент - полю-разделу или списку с именем
+ * во множественном числе (tenant - tenants), текст элемента - полю value.
+ * Неизвестные элементы и атрибуты пропускаются.
+ *
+ */
+class SettingsReader {
+
+	private static final String ROOT = "settings";
+	private static final String VALUE = "value";
+
+	/**
+	 * Читает файл настроек
+	 * @param file - файл настроек
+	 * @return настройки
+	 * @throws HillsException
+	 */
+	public static Settings read(File file) throws HillsException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return read(in);
+		} catch (IOException e) {
+			throw new HillsException("Read settings exception", e);
+		}
+	}
+
+	/**
+	 * Читает настройки из потока
+	 * @param in - XML настроек
+	 * @return настройки
+	 * @throws HillsException
+	 */
+	public static Settings read(InputStream in) throws HillsException {
+		try {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				reader.nextTag();
+				if (!ROOT.equals(reader.getLocalName())) {
+					throw new HillsException("Read settings exception : root element must be <" + ROOT + ">");
+				}
+				Settings retVal = new Settings();
+				readElement(reader, retVal);
+				return retVal;
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException | ReflectiveOperationException | RuntimeException e) {
+			throw new HillsException("Read settings exception", e);
+		}
+	}
+
+	/**
+	 * Заполняет раздел настроек атрибутами и вложенными элементами текущего элемента
+	 */
+	private static void readElement(XMLStreamReader reader, Object target)
+			throws XMLStreamException, ReflectiveOperationException {
+
+		Class<?> type = target.getClass();
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			Field field = field(type, reader.getAttributeLocalName(i));
+			if (field != null && field.getType() == String.class) {
+				field.set(target, reader.getAttributeValue(i));
+			}
+		}
+
+		StringBuilder text = new StringBuilder();
+		int event;
+		while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				readChild(reader, target);
+			} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+				text.append(reader.getText());
+			}
+		}
+
+		Field value = field(type, VALUE);
+		if (value != null && value.getType() == String.class) {
+			value.set(target, text.toString().trim());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void readChild(XMLStreamReader reader, Object target)
+			throws XMLStreamException, ReflectiveOperationException {
+
+		String name = reader.getLocalName();
+		Field field = field(target.getClass(), name);
+		if (field != null && !List.class.isAssignableFrom(field.getType()) && field.getType() != String.class) {
+			Object child = field.getType().getDeclaredConstructor().newInstance();
+			readElement(reader, child);
+			field.set(target, child);
+			return;
+		}
+
+		field = field(target.getClass(), name + "s");
+		if (field != null && List.class.isAssignableFrom(field.getType())) {
+			Class<?> itemType = (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+			Object child = itemType.getDeclaredConstructor().newInstance();
+			readElement(reader, child);
+			List<Object> list = (List<Object>) field.get(target);
+			if (list == null) {
+				list = new ArrayList<Object>();
+				field.set(target, list);
+			}
+			list.add(child);
+			return;
+		}
+
+		skip(reader);
+	}
+
+	private static void skip(XMLStreamReader reader) throws XMLStreamException {
+		for (int depth = 1; depth > 0; ) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private static Field field(Class<?> type, String name) {
+		try {
+			return type.getField(name);
+		} catch (NoSuchFieldException e) {
+			return null;
+		}
+	}
+}
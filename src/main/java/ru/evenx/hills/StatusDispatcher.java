@@ -0,0 +1,221 @@
+package ru.evenx.hills;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Параллельная отправка изменений статусов заказов.
+ * Обновления распределяются по потокам по номеру заказа: все обновления одного заказа
+ * выполняются одним потоком в порядке поступления, разные заказы обрабатываются параллельно.
+ * Ошибка по одному заказу не прерывает обработку остальных.
+ * Очередь каждого потока ограничена: при ее заполнении постановка в очередь ожидает,
+ * пока поток не освободит место, поэтому чтение заказов из БД не опережает отправку.
+ *
+ */
+class StatusDispatcher {
+
+	private static final Logger log = LoggerFactory.getLogger("ru.evenx.logback");
+
+	/* Количество заказов, ожидающих отправки в очереди одного потока, по умолчанию */
+	private static final int DEFAULT_QUEUE_SIZE = 100;
+
+	/* Постановка в заполненную очередь ожидает освобождения места */
+	private static final RejectedExecutionHandler BLOCK_WHEN_FULL = new RejectedExecutionHandler() {
+		@Override
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor lane) {
+			if (lane.isShutdown()) {
+				throw new RejectedExecutionException("Status dispatcher is shut down");
+			}
+			try {
+				lane.getQueue().put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Status dispatcher interrupted", e);
+			}
+		}
+	};
+
+	private final HillsGateway gateway;
+	private final StatusJournal journal;
+	private final ThreadPoolExecutor[] lanes;
+	private final ConcurrentHashMap<String, StatusResult> results = new ConcurrentHashMap<String, StatusResult>();
+	/* Непредвиденная ошибка потока отправки */
+	private volatile Throwable failure = null;
+
+	/**
+	 * @param gateway - шлюз к сервису Hills
+	 * @param threads - количество одновременно выполняемых запросов
+	 * @param journal - журнал отправленных статусов (может отсутствовать)
+	 */
+	public StatusDispatcher(HillsGateway gateway, int threads, StatusJournal journal) {
+		this(gateway, threads, journal, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param gateway - шлюз к сервису Hills
+	 * @param threads - количество одновременно выполняемых запросов
+	 * @param journal - журнал отправленных статусов (может отсутствовать)
+	 * @param queueSize - количество заказов, ожидающих отправки в очереди одного потока
+	 */
+	public StatusDispatcher(HillsGateway gateway, int threads, StatusJournal journal, int queueSize) {
+		this.gateway = gateway;
+		this.journal = journal;
+		this.lanes = new ThreadPoolExecutor[Math.max(1, threads)];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, 
+					new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), BLOCK_WHEN_FULL);
+		}
+	}
+
+	/**
+	 * Ставит в очередь последовательность статусов заказа.
+	 * Если отправка очередного статуса завершилась ошибкой, последующие статусы заказа не отправляются.
+	 * @param orderNumber - номер заказа
+	 * @param shippingDate - дата доставки
+	 * @param statuses - новые статусы в порядке отправки
+	 */
+	public void submit(final String orderNumber, final String shippingDate, final String... statuses) {
+
+		final StatusResult result = getResult(orderNumber);
+		enqueue(orderNumber, new Runnable() {
+			@Override
+			public void run() {
+				for (String status : statuses) {
+					if (result.error != null) {
+						return;
+					}
+					send(result, status, shippingDate, true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Ставит в очередь изменение только даты доставки заказа, статус которого не меняется
+	 * @param orderNumber - номер заказа
+	 * @param shippingDate - новая дата доставки
+	 * @param status - текущий статус заказа, записывается в журнал вместе с датой
+	 */
+	public void submitShippingDate(final String orderNumber, final String shippingDate, final String status) {
+
+		final StatusResult result = getResult(orderNumber);
+		enqueue(orderNumber, new Runnable() {
+			@Override
+			public void run() {
+				if (result.error == null) {
+					send(result, status, shippingDate, false);
+				}
+			}
+		});
+	}
+
+	private void enqueue(String orderNumber, final Runnable task) {
+		int lane = (orderNumber.hashCode() & Integer.MAX_VALUE) % lanes.length;
+		lanes[lane].execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					failure = e;
+				}
+			}
+		});
+	}
+
+	private void send(StatusResult result, String status, String shippingDate, boolean changeStatus) {
+		try {
+			log.info(String.format("[newStatus, orderNumber, shippingDate] in [%1$s, %2$s, %3$s]",
+					changeStatus ? status : "", result.orderNumber, shippingDate));
+			GatewayResult res = gateway.ordersPartialUpdate(result.orderNumber, shippingDate, changeStatus ? status : null);
+			log.info(res.responseString);
+			if (res.success) {
+				result.sent.add(status);
+				if (journal != null) {
+					journal.record(result.orderNumber, status, shippingDate);
+				}
+			} else {
+				result.failedStatus = status;
+				result.error = res.responseCode + " " + res.responseString;
+				result.rejected = !RetryPolicy.isTransient(res.responseCode);
+			}
+		} catch (Exception e) {
+			result.failedStatus = status;
+			result.error = e.toString();
+		}
+	}
+
+	private StatusResult getResult(String orderNumber) {
+		StatusResult result = results.get(orderNumber);
+		if (result == null) {
+			result = new StatusResult(orderNumber);
+			StatusResult prev = results.putIfAbsent(orderNumber, result);
+			if (prev != null) {
+				result = prev;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Ожидает завершения всех отправок и освобождает потоки
+	 * @return результаты по каждому заказу
+	 * @throws HillsException
+	 */
+	public Collection<StatusResult> await() throws HillsException {
+		for (ThreadPoolExecutor lane : lanes) {
+			lane.shutdown();
+		}
+		try {
+			for (ThreadPoolExecutor lane : lanes) {
+				lane.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HillsException("Orders status changing interrupted", e);
+		} finally {
+			for (ThreadPoolExecutor lane : lanes) {
+				lane.shutdownNow();
+			}
+		}
+		if (failure != null) {
+			throw new HillsException("Orders status changing exception", failure);
+		}
+		return results.values();
+	}
+}
+
+/**
+ * Результат отправки статусов одного заказа
+ *
+ */
+class StatusResult {
+	public final String orderNumber;
+	public final List<String> sent = new ArrayList<String>();
+	public String failedStatus;
+	public String error;
+	/* Сервис отклонил изменение (ответ 4xx): повторная отправка завершится той же ошибкой */
+	public boolean rejected;
+
+	StatusResult(String orderNumber) {
+		this.orderNumber = orderNumber;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	public boolean isRejected() {
+		return error != null && rejected;
+	}
+}
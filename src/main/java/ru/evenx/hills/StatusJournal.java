@@ -0,0 +1,119 @@
+package ru.evenx.hills;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Журнал последних успешно отправленных статусов заказов.
+ * Хранится в текстовом файле, в который дописываются строки "номер заказа\tстатус\tдата доставки".
+ * Каждая запись сразу сбрасывается в файл, поэтому отправленные статусы сохраняются и при аварийном
+ * завершении процесса. При загрузке действует последняя запись по заказу; при закрытии файл сжимается,
+ * если устаревших записей в нем больше, чем актуальных.
+ *
+ */
+class StatusJournal {
+
+	private static final String SEPARATOR = "\t";
+
+	private final File file;
+	private final Map<String, String[]> pushed = new HashMap<String, String[]>();
+	private Writer writer = null;
+	private int records = 0;
+
+	/**
+	 * Открывает журнал, загружая ранее сделанные записи
+	 * @param file - файл журнала
+	 * @throws IOException
+	 */
+	public StatusJournal(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split(SEPARATOR, -1);
+					if (fields.length == 3) {
+						pushed.put(fields[0], new String[] { fields[1], fields[2] });
+						records++;
+					}
+				}
+			}
+		}
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Последний отправленный статус заказа с той же датой доставки
+	 * @param orderNumber - номер заказа
+	 * @param shippingDate - дата доставки
+	 * @return статус или null, если по заказу с этой датой доставки статусы не отправлялись
+	 */
+	public synchronized String lastPushed(String orderNumber, String shippingDate) {
+		String[] last = pushed.get(orderNumber);
+		return last != null && last[1].equals(nvl(shippingDate)) ? last[0] : null;
+	}
+
+	/**
+	 * Отправлялась ли по заказу дата доставки, отличная от заданной
+	 * @param orderNumber - номер заказа
+	 * @param shippingDate - дата доставки
+	 * @return true, если по заказу есть запись с другой датой доставки; false, если записей нет
+	 */
+	public synchronized boolean isShippingDateChanged(String orderNumber, String shippingDate) {
+		String[] last = pushed.get(orderNumber);
+		return last != null && !last[1].equals(nvl(shippingDate));
+	}
+
+	/**
+	 * Записывает успешно отправленный статус заказа
+	 * @param orderNumber - номер заказа
+	 * @param status - статус
+	 * @param shippingDate - дата доставки
+	 * @throws IOException
+	 */
+	public synchronized void record(String orderNumber, String status, String shippingDate) throws IOException {
+		pushed.put(orderNumber, new String[] { status, nvl(shippingDate) });
+		writer.write(orderNumber + SEPARATOR + status + SEPARATOR + nvl(shippingDate) + "\n");
+		writer.flush();
+		records++;
+	}
+
+	/**
+	 * Закрывает журнал, при необходимости сжимая файл
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		writer.close();
+		if (records > 2 * pushed.size()) {
+			compact();
+		}
+	}
+
+	private void compact() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+			for (Map.Entry<String, String[]> entry : pushed.entrySet()) {
+				out.write(entry.getKey() + SEPARATOR + entry.getValue()[0] + SEPARATOR + entry.getValue()[1] + "\n");
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		records = pushed.size();
+	}
+
+	private static String nvl(String value) {
+		return value == null ? "" : value;
+	}
+}
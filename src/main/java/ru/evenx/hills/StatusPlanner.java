@@ -0,0 +1,135 @@
+package ru.evenx.hills;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Планирование смены статусов заказа по допустимым переходам сервиса Hills
+ * (см. {@link HillsGateway#ordersPartialUpdate}):
+ * created -> processing, cancelled;
+ * processing -> awaiting_payment, awaiting_delivery, cancelled;
+ * awaiting_payment -> awaiting_delivery, cancelled;
+ * awaiting_delivery -> done, cancelled.
+ * По текущему статусу заказа на сервисе строится кратчайшая последовательность переходов к целевому статусу.
+ * Если заказ уже в целевом статусе или целевой статус из текущего недостижим, запросы не отправляются:
+ * такие обращения считаются предотвращенными.
+ *
+ */
+class StatusPlanner {
+
+	static final String CREATED = "created";
+	static final String PROCESSING = "processing";
+	static final String AWAITING_PAYMENT = "awaiting_payment";
+	static final String AWAITING_DELIVERY = "awaiting_delivery";
+	static final String DONE = "done";
+	static final String CANCELLED = "cancelled";
+
+	/* Допустимые переходы; при равной длине пути предпочитается переход, указанный раньше */
+	private static final Map<String, List<String>> TRANSITIONS = new LinkedHashMap<String, List<String>>();
+
+	static {
+		TRANSITIONS.put(CREATED, Arrays.asList(PROCESSING, CANCELLED));
+		TRANSITIONS.put(PROCESSING, Arrays.asList(AWAITING_DELIVERY, AWAITING_PAYMENT, CANCELLED));
+		TRANSITIONS.put(AWAITING_PAYMENT, Arrays.asList(AWAITING_DELIVERY, CANCELLED));
+		TRANSITIONS.put(AWAITING_DELIVERY, Arrays.asList(DONE, CANCELLED));
+		TRANSITIONS.put(DONE, Collections.<String>emptyList());
+		TRANSITIONS.put(CANCELLED, Collections.<String>emptyList());
+	}
+
+	private int planned = 0;
+	private int avoided = 0;
+
+	/**
+	 * Последовательность статусов для перевода заказа из текущего статуса в целевой
+	 * @param current - текущий статус заказа на сервисе
+	 * @param target - целевой статус
+	 * @return статусы в порядке отправки; пустой список, если заказ уже в целевом статусе
+	 * или целевой статус недостижим
+	 */
+	public List<String> plan(String current, String target) {
+		List<String> path = path(current, target);
+		if (path == null || path.isEmpty()) {
+			avoided++;
+			return Collections.emptyList();
+		}
+		planned += path.size();
+		return path;
+	}
+
+	/**
+	 * Запрос изменения только даты доставки: заказ уже в целевом статусе
+	 */
+	public void planShippingDate() {
+		planned++;
+	}
+
+	/**
+	 * Текущий статус заказа на сервисе
+	 * @param pushed - последний статус, отправленный по журналу с той же датой доставки (может отсутствовать)
+	 * @param loaded - статус, полученный с сервиса при загрузке заказа
+	 * @return статус из журнала, если он дальше по жизненному циклу, чем полученный с сервиса;
+	 * иначе полученный с сервиса (например, заказ отменен на стороне сервиса)
+	 */
+	static String current(String pushed, String loaded) {
+		if (pushed == null || loaded == null) {
+			return pushed != null ? pushed : loaded;
+		}
+		List<String> path = path(loaded, pushed);
+		return path != null && !path.isEmpty() ? pushed : loaded;
+	}
+
+	/**
+	 * Кратчайший путь между статусами
+	 * @param from - исходный статус
+	 * @param to - целевой статус
+	 * @return статусы пути без исходного; пустой список, если статусы совпадают;
+	 * null, если целевой статус недостижим или статусы неизвестны
+	 */
+	static List<String> path(String from, String to) {
+		if (!TRANSITIONS.containsKey(from) || !TRANSITIONS.containsKey(to)) {
+			return null;
+		}
+		Map<String, String> previous = new HashMap<String, String>();
+		Deque<String> queue = new ArrayDeque<String>();
+		previous.put(from, null);
+		queue.add(from);
+		while (!queue.isEmpty()) {
+			String status = queue.poll();
+			if (status.equals(to)) {
+				LinkedList<String> path = new LinkedList<String>();
+				for (String s = to; !s.equals(from); s = previous.get(s)) {
+					path.addFirst(s);
+				}
+				return path;
+			}
+			for (String next : TRANSITIONS.get(status)) {
+				if (!previous.containsKey(next)) {
+					previous.put(next, status);
+					queue.add(next);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Количество запланированных запросов смены статуса
+	 */
+	public int getPlanned() {
+		return planned;
+	}
+
+	/**
+	 * Количество предотвращенных запросов: заказ уже в целевом статусе или переход недопустим
+	 */
+	public int getAvoided() {
+		return avoided;
+	}
+}
@@ -0,0 +1,270 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Выгрузка остатков и цен по изменениям.
+ * Источник опрашивается от отметки прошлого опроса; повторные изменения одной позиции, пришедшие
+ * в течение окна с момента ее первого изменения, объединяются, и выгружается последнее значение.
+ * Позиции, окно которых истекло, отправляются небольшими пакетами через stockRecordsCreate,
+ * поэтому нагрузка на сервис зависит от количества изменений, а не от размера прайс-листа.
+ * Позиции, значения которых совпадают со снимком выгруженного состояния, не отправляются.
+ * В файле сохраняется отметка последнего опроса, все изменения которого выгружены:
+ * после перезапуска невыгруженные изменения будут получены повторно.
+ * Раз в заданное количество часов полный прайс-лист источника сверяется со снимком: так выгружаются
+ * изменения, не видимые по отметке, в том числе нулевой остаток позиций, удаленных из источника.
+ *
+ */
+class StockFeed {
+
+	private static final Logger log = LoggerFactory.getLogger("ru.evenx.logback");
+
+	private final StockSource source;
+	private final HillsGateway gateway;
+	private final StockSnapshot snapshot;
+	private final Watermark watermark;
+	private final long window;
+	private final int batchSize;
+	private final boolean gzip;
+	private final int rescanHours;
+
+	/* Ожидающие выгрузки позиции в порядке первого изменения */
+	private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+	/* Опросы, изменения которых еще не выгружены полностью */
+	private final Deque<Poll> polls = new ArrayDeque<Poll>();
+	private String sourceWatermark = null;
+	private boolean started = false;
+	private long pollNumber = 0;
+
+	/**
+	 * @param source - источник изменений
+	 * @param gateway - шлюз к сервису Hills
+	 * @param snapshot - снимок выгруженного состояния
+	 * @param watermark - отметка выгруженных изменений
+	 * @param window - окно объединения изменений позиции, мс
+	 * @param batchSize - максимальное количество позиций в одном запросе
+	 * @param gzip - сжимать тело запроса
+	 * @param rescanHours - период сверки полного прайс-листа со снимком в часах; 0 - сверка не выполняется
+	 */
+	public StockFeed(StockSource source, HillsGateway gateway, StockSnapshot snapshot, Watermark watermark,
+			long window, int batchSize, boolean gzip, int rescanHours) {
+		this.source = source;
+		this.gateway = gateway;
+		this.snapshot = snapshot;
+		this.watermark = watermark;
+		this.window = Math.max(0, window);
+		this.batchSize = Math.max(1, batchSize);
+		this.gzip = gzip;
+		this.rescanHours = Math.max(0, rescanHours);
+	}
+
+	/**
+	 * Опрашивает источник и добавляет изменения к ожидающим выгрузки
+	 * @return количество новых ожидающих позиций
+	 * @throws HillsException
+	 */
+	public synchronized int poll() throws HillsException {
+		if (!started) {
+			try {
+				sourceWatermark = watermark.read();
+			} catch (IOException e) {
+				throw new HillsException("Read stock feed watermark exception", e);
+			}
+			started = true;
+		}
+
+		StockSource.Changes changes = source.changesSince(sourceWatermark);
+		long now = System.currentTimeMillis();
+		pollNumber++;
+		int added = 0;
+		int coalesced = 0;
+		for (StockRecord record : changes.records) {
+			Pending item = pending.get(record.sku);
+			if (item != null) {
+				item.record = record;
+				coalesced++;
+			} else if (snapshot.isChanged(record)) {
+				pending.put(record.sku, new Pending(record, now, pollNumber));
+				added++;
+			}
+		}
+		if (rescanHours > 0 && snapshot.isResyncDue(rescanHours)) {
+			added += reconcile(now);
+		}
+		polls.add(new Poll(pollNumber, changes.watermark));
+		sourceWatermark = changes.watermark;
+
+		Metrics metrics = gateway.getMetrics();
+		metrics.increment(Metrics.STOCK_CHANGES, added);
+		metrics.increment(Metrics.STOCK_CHANGES_COALESCED, coalesced);
+		commitWatermark();
+		return added;
+	}
+
+	/**
+	 * Сверяет полный прайс-лист источника со снимком и добавляет расхождения к ожидающим выгрузки
+	 * @return количество новых ожидающих позиций
+	 */
+	private int reconcile(long now) throws HillsException {
+		List<StockRecord> current = source.all();
+		List<StockRecord> changed = snapshot.changed(current);
+		List<StockRecord> removed = snapshot.removed(current);
+		int added = 0;
+		for (List<StockRecord> records : Arrays.asList(changed, removed)) {
+			for (StockRecord record : records) {
+				Pending item = pending.get(record.sku);
+				if (item != null) {
+					item.record = record;
+				} else {
+					pending.put(record.sku, new Pending(record, now, pollNumber));
+					added++;
+				}
+			}
+		}
+		try {
+			snapshot.markFullSync();
+		} catch (IOException e) {
+			throw new HillsException("Save stock snapshot exception", e);
+		}
+		log.info(String.format("Stock feed: reconciled %1$d positions, changed %2$d, removed %3$d",
+				current.size(), changed.size(), removed.size()));
+		return added;
+	}
+
+	/**
+	 * Выгружает позиции, окно объединения которых истекло
+	 * @param all - выгрузить все ожидающие позиции, не дожидаясь окончания окна
+	 * @return количество выгруженных позиций
+	 * @throws HillsException - если запрос завершился ошибкой; невыгруженные позиции остаются ожидающими
+	 */
+	public synchronized int flush(boolean all) throws HillsException {
+		long due = all ? Long.MAX_VALUE : System.currentTimeMillis() - window;
+		List<Pending> ready = new ArrayList<Pending>();
+		for (Pending item : pending.values()) {
+			if (item.firstChange > due) {
+				break;
+			}
+			ready.add(item);
+		}
+		if (ready.isEmpty()) {
+			return 0;
+		}
+
+		List<StockRecord> uploaded = new ArrayList<StockRecord>();
+		int batches = 0;
+		String error = null;
+		for (int from = 0; from < ready.size() && error == null; from += batchSize) {
+			List<Pending> part = ready.subList(from, Math.min(from + batchSize, ready.size()));
+			List<StockRecord> records = new ArrayList<StockRecord>(part.size());
+			for (Pending item : part) {
+				if (snapshot.isChanged(item.record)) {
+					records.add(item.record);
+				}
+			}
+			error = records.isEmpty() ? null : send(records);
+			if (error == null) {
+				for (Pending item : part) {
+					pending.remove(item.record.sku);
+				}
+				uploaded.addAll(records);
+				batches += records.isEmpty() ? 0 : 1;
+			}
+		}
+
+		try {
+			if (!uploaded.isEmpty()) {
+				snapshot.save(uploaded, false);
+			}
+			commitWatermark();
+		} catch (IOException e) {
+			throw new HillsException("Save stock feed state exception", e);
+		} finally {
+			gateway.getMetrics().increment(Metrics.SKUS_UPLOADED, uploaded.size());
+			log.info(String.format("Stock feed: uploaded %1$d in %2$d batches, pending %3$d",
+					uploaded.size(), batches, pending.size()));
+		}
+		if (error != null) {
+			throw new HillsException("Send stock changes exception : " + error);
+		}
+		return uploaded.size();
+	}
+
+	/**
+	 * Количество позиций, ожидающих выгрузки
+	 */
+	public synchronized int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Отправляет пакет позиций
+	 * @return null или текст ошибки
+	 */
+	private String send(List<StockRecord> records) {
+		try {
+			GatewayResult res = gateway.stockRecordsCreate(StockRecord.toJson(records), gzip);
+			return res.success ? null : res.responseCode + " " + res.responseString;
+		} catch (IOException e) {
+			return e.toString();
+		}
+	}
+
+	/**
+	 * Сохраняет отметку последнего опроса, все изменения которого выгружены
+	 */
+	private void commitWatermark() throws HillsException {
+		long oldest = pending.isEmpty() ? Long.MAX_VALUE : pending.values().iterator().next().poll;
+		String committed = null;
+		while (!polls.isEmpty() && polls.peekFirst().number < oldest) {
+			committed = polls.pollFirst().watermark;
+		}
+		if (committed == null) {
+			return;
+		}
+		try {
+			watermark.write(committed);
+		} catch (IOException e) {
+			throw new HillsException("Write stock feed watermark exception", e);
+		}
+	}
+
+	/**
+	 * Позиция, ожидающая выгрузки
+	 */
+	private static class Pending {
+		StockRecord record;
+		/* Время первого изменения, мс */
+		final long firstChange;
+		/* Номер опроса, в котором позиция изменилась впервые */
+		final long poll;
+
+		Pending(StockRecord record, long firstChange, long poll) {
+			this.record = record;
+			this.firstChange = firstChange;
+			this.poll = poll;
+		}
+	}
+
+	/**
+	 * Отметка источника после опроса
+	 */
+	private static class Poll {
+		final long number;
+		final String watermark;
+
+		Poll(long number, String watermark) {
+			this.number = number;
+			this.watermark = watermark;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Запись об остатке и цене товара в прайс-листе
+ *
+ */
+class StockRecord {
+	public final String sku;
+	public final BigDecimal price;
+	public final BigDecimal quantity;
+
+	public StockRecord(String sku, BigDecimal price, BigDecimal quantity) {
+		this.sku = sku;
+		this.price = price;
+		this.quantity = quantity;
+	}
+
+	/**
+	 * Совпадают ли цена и количество с другой записью
+	 */
+	public boolean sameValues(StockRecord other) {
+		return other != null 
+				&& price.compareTo(other.price) == 0 
+				&& quantity.compareTo(other.quantity) == 0;
+	}
+
+	/**
+	 * Разбор прайс-листа
+	 * @param priceList - прайс-лист в формате {"stock_records":[{"sku":..,"price":..,"quantity":..}]}
+	 * @return список записей
+	 */
+	static List<StockRecord> parse(String priceList) {
+		List<StockRecord> retVal = new ArrayList<StockRecord>();
+		JsonObject itemObject = new JsonParser().parse(priceList).getAsJsonObject();
+		for (JsonElement item : itemObject.getAsJsonArray("stock_records")) {
+			JsonObject record = item.getAsJsonObject();
+			retVal.add(new StockRecord(record.get("sku").getAsString(), 
+					record.get("price").getAsBigDecimal(), 
+					record.get("quantity").getAsBigDecimal()));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Формирование прайс-листа
+	 * @param records - список записей
+	 * @return прайс-лист в формате {"stock_records":[...]}
+	 */
+	static String toJson(List<StockRecord> records) {
+		StringWriter out = new StringWriter();
+		try {
+			JsonWriter writer = new JsonWriter(out);
+			writer.beginObject().name("stock_records").beginArray();
+			for (StockRecord record : records) {
+				record.write(writer);
+			}
+			writer.endArray().endObject();
+			writer.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Запись в поток JSON
+	 * @param writer - приемник
+	 * @throws IOException
+	 */
+	void write(JsonWriter writer) throws IOException {
+		writer.beginObject()
+			.name("sku").value(sku)
+			.name("price").jsonValue(price.toPlainString())
+			.name("quantity").jsonValue(quantity.toPlainString())
+			.endObject();
+	}
+}
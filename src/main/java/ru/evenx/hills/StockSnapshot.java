@@ -0,0 +1,149 @@
+package ru.evenx.hills;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Снимок последнего успешно выгруженного состояния прайс-листа: sku -> (цена, количество).
+ * Хранится в двоичном файле вместе со временем последней полной выгрузки.
+ *
+ */
+class StockSnapshot {
+
+	private static final int VERSION = 1;
+
+	private final File file;
+	private Map<String, StockRecord> records = new HashMap<String, StockRecord>();
+	private long fullSyncTime = 0;
+
+	/**
+	 * Загружает снимок из файла; если файла нет, снимок пуст
+	 * @param file - файл снимка
+	 * @throws IOException
+	 */
+	public StockSnapshot(File file) throws IOException {
+		this.file = file;
+		if (!file.exists()) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != VERSION) {
+				return;
+			}
+			fullSyncTime = in.readLong();
+			int count = in.readInt();
+			records = new HashMap<String, StockRecord>(count * 2);
+			for (int i = 0; i < count; i++) {
+				String sku = in.readUTF();
+				records.put(sku, new StockRecord(sku, new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF())));
+			}
+		}
+	}
+
+	/**
+	 * Нужна ли полная выгрузка
+	 * @param resyncHours - период полной выгрузки в часах
+	 */
+	public boolean isResyncDue(int resyncHours) {
+		return records.isEmpty() 
+				|| System.currentTimeMillis() - fullSyncTime >= TimeUnit.HOURS.toMillis(resyncHours);
+	}
+
+	/**
+	 * Отбирает записи, цена или количество которых изменились с момента снимка
+	 * @param current - текущий прайс-лист
+	 * @return измененные и новые записи
+	 */
+	public List<StockRecord> changed(List<StockRecord> current) {
+		List<StockRecord> retVal = new ArrayList<StockRecord>();
+		for (StockRecord record : current) {
+			if (isChanged(record)) {
+				retVal.add(record);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Изменилась ли цена или количество позиции с момента снимка (новая позиция считается измененной)
+	 * @param record - текущая запись
+	 */
+	public boolean isChanged(StockRecord record) {
+		return !record.sameValues(records.get(record.sku));
+	}
+
+	/**
+	 * Позиции снимка с ненулевым остатком, которых нет в текущем прайс-листе
+	 * @param current - текущий прайс-лист
+	 * @return записи с прежней ценой и нулевым остатком
+	 */
+	public List<StockRecord> removed(Collection<StockRecord> current) {
+		Set<String> present = new HashSet<String>(current.size() * 2);
+		for (StockRecord record : current) {
+			present.add(record.sku);
+		}
+		List<StockRecord> retVal = new ArrayList<StockRecord>();
+		for (StockRecord record : records.values()) {
+			if (!present.contains(record.sku) && record.quantity.signum() != 0) {
+				retVal.add(new StockRecord(record.sku, record.price, BigDecimal.ZERO));
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Отмечает время полной сверки и сохраняет снимок
+	 * @throws IOException
+	 */
+	public void markFullSync() throws IOException {
+		fullSyncTime = System.currentTimeMillis();
+		save(Collections.<StockRecord>emptyList(), false);
+	}
+
+	/**
+	 * Запоминает выгруженные записи и сохраняет снимок
+	 * @param uploaded - успешно выгруженные записи
+	 * @param full - была ли выгрузка полной; при полной выгрузке снимок заменяется целиком
+	 * @throws IOException
+	 */
+	public void save(List<StockRecord> uploaded, boolean full) throws IOException {
+		if (full) {
+			records = new HashMap<String, StockRecord>(uploaded.size() * 2);
+			fullSyncTime = System.currentTimeMillis();
+		}
+		for (StockRecord record : uploaded) {
+			records.put(record.sku, record);
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(VERSION);
+			out.writeLong(fullSyncTime);
+			out.writeInt(records.size());
+			for (StockRecord record : records.values()) {
+				out.writeUTF(record.sku);
+				out.writeUTF(record.price.toPlainString());
+				out.writeUTF(record.quantity.toPlainString());
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
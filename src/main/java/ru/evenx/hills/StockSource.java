@@ -0,0 +1,44 @@
+package ru.evenx.hills;
+
+import java.util.List;
+
+/**
+ * Источник изменений остатков и цен для выгрузки по изменениям ({@link StockFeed})
+ *
+ */
+interface StockSource {
+
+	/**
+	 * Возвращает позиции, остаток или цена которых могли измениться после отметки.
+	 * Источник может вернуть и неизменившиеся позиции: они отсеиваются по снимку выгруженного состояния.
+	 * @param watermark - отметка прошлого опроса; null - первый опрос, возвращаются все позиции
+	 * @return текущие значения позиций и новая отметка
+	 * @throws HillsException
+	 */
+	Changes changesSince(String watermark) throws HillsException;
+
+	/**
+	 * Текущие значения всех позиций для сверки со снимком выгруженного состояния.
+	 * Позиции снимка, которых нет в результате, удалены из источника: для них выгружается нулевой остаток.
+	 * @return текущие значения позиций
+	 * @throws HillsException
+	 */
+	List<StockRecord> all() throws HillsException;
+
+	/**
+	 * Результат опроса источника
+	 */
+	class Changes {
+		public final List<StockRecord> records;
+		public final String watermark;
+
+		/**
+		 * @param records - текущие значения изменившихся позиций
+		 * @param watermark - отметка, с которой начнется следующий опрос
+		 */
+		public Changes(List<StockRecord> records, String watermark) {
+			this.records = records;
+			this.watermark = watermark;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Выгрузка прайс-листа частями.
+ * Список записей делится на части заданного размера, части отправляются параллельно,
+ * каждая часть при временной ошибке повторяется независимо от остальных согласно {@link RetryPolicy}.
+ *
+ */
+class StockUploader {
+
+	private static final Logger log = LoggerFactory.getLogger("ru.evenx.logback");
+
+	private final HillsGateway gateway;
+	private final int chunkSize;
+	private final int threads;
+	private final RetryPolicy retryPolicy;
+	private final boolean gzip;
+
+	/**
+	 * @param gateway - шлюз к сервису Hills
+	 * @param chunkSize - количество записей в одном запросе
+	 * @param threads - количество одновременно отправляемых запросов
+	 * @param retryPolicy - повтор части при временной ошибке
+	 * @param gzip - сжимать тело запроса
+	 */
+	public StockUploader(HillsGateway gateway, int chunkSize, int threads, RetryPolicy retryPolicy, boolean gzip) {
+		this.gateway = gateway;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.threads = Math.max(1, threads);
+		this.retryPolicy = retryPolicy;
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Выгружает записи прайс-листа
+	 * @param records - записи прайс-листа
+	 * @return успешно выгруженные записи (по частям, завершившимся успешно)
+	 * @throws HillsException
+	 */
+	public List<StockRecord> upload(List<StockRecord> records) throws HillsException {
+
+		List<Future<ChunkResult>> futures = new ArrayList<Future<ChunkResult>>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int from = 0, chunk = 1; from < records.size(); from += chunkSize, chunk++) {
+				final List<StockRecord> part = records.subList(from, Math.min(from + chunkSize, records.size()));
+				final int number = chunk;
+				futures.add(executor.submit(new Callable<ChunkResult>() {
+					@Override
+					public ChunkResult call() throws IOException {
+						return send(number, part);
+					}
+				}));
+			}
+
+			List<StockRecord> retVal = new ArrayList<StockRecord>();
+			int failed = 0;
+			for (Future<ChunkResult> future : futures) {
+				ChunkResult result = future.get();
+				if (result.success) {
+					retVal.addAll(result.records);
+				} else {
+					failed++;
+				}
+				log.info(String.format("Chunk %1$d: records %2$d, attempts %3$d, %4$s", 
+						result.number, result.records.size(), result.attempts, 
+						result.success ? "OK" : "FAILED " + result.error));
+			}
+			log.info(String.format("Stock chunks uploaded: %1$d, failed: %2$d", futures.size() - failed, failed));
+			return retVal;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HillsException("Stock records upload interrupted", e);
+		} catch (ExecutionException e) {
+			throw new HillsException("Stock records upload exception", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private ChunkResult send(int number, List<StockRecord> part) throws IOException {
+
+		ChunkResult result = new ChunkResult(number, part);
+		String request = StockRecord.toJson(part);
+		for (int attempt = 0; ; attempt++) {
+			result.attempts++;
+			try {
+				GatewayResult res = gateway.stockRecordsCreate(request, gzip);
+				if (res.success) {
+					result.success = true;
+					return result;
+				}
+				result.error = res.responseCode + " " + res.responseString;
+				if (!retryPolicy.shouldRetry(attempt, res.responseCode)) {
+					return result;
+				}
+			} catch (IOException e) {
+				result.error = e.toString();
+				if (!retryPolicy.shouldRetry(attempt, e)) {
+					return result;
+				}
+			}
+			gateway.getMetrics().increment(Metrics.HTTP_RETRIES, 1);
+			retryPolicy.pause(attempt);
+		}
+	}
+
+	/**
+	 * Результат выгрузки одной части
+	 */
+	private static class ChunkResult {
+		final int number;
+		final List<StockRecord> records;
+		int attempts = 0;
+		boolean success = false;
+		String error = null;
+
+		ChunkResult(int number, List<StockRecord> records) {
+			this.number = number;
+			this.records = records;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package ru.evenx.hills;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Отметка последней обработанной позиции, сохраняемая в файле между запусками
+ *
+ */
+class Watermark {
+
+	private final File file;
+
+	/**
+	 * @param file - файл отметки
+	 */
+	public Watermark(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Читает отметку
+	 * @return значение отметки или null, если отметка еще не сохранялась
+	 * @throws IOException
+	 */
+	public String read() throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		String value = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+		return value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Сохраняет отметку. Запись выполняется через временный файл,
+	 * чтобы прерванный запуск не оставил испорченную отметку.
+	 * @param value - новое значение отметки
+	 * @throws IOException
+	 */
+	public void write(String value) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		Files.write(tmp.toPath(), value.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,85 @@
+package ru.evenx.hills;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+/**
+ * Пакетная запись заказов во встроенную БД (H2) с реляционной схемой, повторяющей hills_orders.
+ * Используется для локальной проверки и замеров без БД СКАТ.
+ */
+public class EmbeddedOrderSink
+    extends JdbcBatchOrderSink
+{
+    /**
+     * @param dataSource - подключения к встроенной БД
+     */
+    public EmbeddedOrderSink( DataSource dataSource )
+    {
+        super( dataSource );
+    }
+
+    /**
+     * Создает таблицы заказов, если их еще нет
+     */
+    public void createSchema() throws SQLException
+    {
+        try ( Connection dbcon = dataSource.getConnection(); Statement stmt = dbcon.createStatement() )
+        {
+            stmt.execute( "CREATE TABLE IF NOT EXISTS hills_orders ("
+                + "  order_number VARCHAR(50) PRIMARY KEY, "
+                + "  date_download TIMESTAMP, "
+                + "  status VARCHAR(50), "
+                + "  date_placed TIMESTAMP, "
+                + "  shipping_date DATE, "
+                + "  user_id BIGINT, "
+                + "  is_activated_by_distributor INT, "
+                + "  client_id VARCHAR(50), "
+                + "  customer_id VARCHAR(50), "
+                + "  delivery_id VARCHAR(50), "
+                + "  bonus INT, "
+                + "  tradedoc_code INT, "
+                + "  tradedoc_status VARCHAR(50), "
+                + "  json_content CLOB)" );
+            stmt.execute( "CREATE TABLE IF NOT EXISTS hills_order_lines ("
+                + "  order_number VARCHAR(50), "
+                + "  sku VARCHAR(50), "
+                + "  final_price NUMERIC, "
+                + "  discount NUMERIC, "
+                + "  quantity NUMERIC)" );
+        }
+    }
+
+    protected String selectExistingSql()
+    {
+        return "SELECT order_number FROM hills_orders WHERE order_number IN";
+    }
+
+    protected String updateStatusSql()
+    {
+        return "UPDATE hills_orders SET status = ? WHERE order_number = ?";
+    }
+
+    protected String insertOrderSql()
+    {
+        return "INSERT INTO hills_orders "
+            + "  (date_download, order_number, status, date_placed, shipping_date, user_id, "
+            + "   is_activated_by_distributor, client_id, customer_id, delivery_id, bonus, "
+            + "   tradedoc_code, tradedoc_status, json_content) "
+            + "VALUES "
+            + "  (CURRENT_TIMESTAMP, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, -1, NULL, ?)";
+    }
+
+    protected String insertLineSql()
+    {
+        return "INSERT INTO hills_order_lines (order_number, sku, final_price, discount, quantity) "
+            + "VALUES (?, ?, ?, ?, ?)";
+    }
+
+    public void complete()
+    {
+        /* Товарные документы во встроенной БД не создаются */
+    }
+}
@@ -0,0 +1,71 @@
+package ru.evenx.hills;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Проверка пакетной записи заказов во встроенную БД
+ */
+public class EmbeddedOrderSinkTest 
+    extends TestCase
+{
+    private static final String ORDERS = "{\"results\":["
+        + "{\"number\":\"1001\",\"status\":\"created\",\"date_placed\":\"2019-03-01T10:15:30.123Z\","
+        + "\"shipping_date\":\"2019-03-02\",\"bonus\":false,"
+        + "\"user\":{\"id\":7,\"is_activated_by_distributor\":true,"
+        + "\"clinic\":{\"customer_id\":\"1AB123C45678\",\"delivery_id\":\"D1\",\"client_id\":\"C1\"}},"
+        + "\"lines\":[{\"sku\":\"501\",\"final_price\":120.5,\"discount\":0,\"quantity\":2},"
+        + "{\"sku\":\"502\",\"final_price\":80,\"discount\":5,\"quantity\":1}]},"
+        + "{\"number\":\"1002\",\"status\":\"processing\",\"date_placed\":\"2019-03-01T11:00:00.000Z\","
+        + "\"shipping_date\":null,\"bonus\":true,\"user\":{\"id\":8,\"is_activated_by_distributor\":false,"
+        + "\"clinic\":{\"customer_id\":\"1AB123C45679\"}},\"lines\":[]}"
+        + "]}";
+
+    private JdbcDataSource dataSource;
+
+    protected void setUp() throws SQLException
+    {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL( "jdbc:h2:mem:" + getName() + ";DB_CLOSE_DELAY=-1" );
+        new EmbeddedOrderSink( dataSource ).createSchema();
+    }
+
+    public void testNewOrdersAreInsertedWithLines() throws Exception
+    {
+        EmbeddedOrderSink sink = new EmbeddedOrderSink( dataSource );
+        sink.accept( ORDERS );
+        sink.complete();
+
+        assertEquals( 2, count( "SELECT COUNT(*) FROM hills_orders" ) );
+        assertEquals( 2, count( "SELECT COUNT(*) FROM hills_order_lines WHERE order_number = '1001'" ) );
+        assertEquals( 1, count( "SELECT bonus FROM hills_orders WHERE order_number = '1002'" ) );
+    }
+
+    public void testExistingOrdersOnlyChangeStatus() throws Exception
+    {
+        EmbeddedOrderSink sink = new EmbeddedOrderSink( dataSource );
+        sink.accept( ORDERS );
+        sink.accept( ORDERS.replace( "\"status\":\"created\"", "\"status\":\"awaiting_delivery\"" ) );
+
+        assertEquals( 2, count( "SELECT COUNT(*) FROM hills_orders" ) );
+        assertEquals( 2, count( "SELECT COUNT(*) FROM hills_order_lines" ) );
+        assertEquals( 1, count( "SELECT COUNT(*) FROM hills_orders WHERE status = 'awaiting_delivery'" ) );
+    }
+
+    private int count( String sql ) throws SQLException
+    {
+        try ( Connection dbcon = dataSource.getConnection();
+              Statement stmt = dbcon.createStatement();
+              ResultSet rs = stmt.executeQuery( sql ) )
+        {
+            rs.next();
+            return rs.getInt( 1 );
+        }
+    }
+}
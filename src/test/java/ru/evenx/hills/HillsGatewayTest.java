@@ -0,0 +1,137 @@
+package ru.evenx.hills;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+/**
+ * Проверка обращений шлюза к локальной замене сервиса Hills
+ */
+public class HillsGatewayTest
+    extends MockHillsServerTestCase
+{
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        server.orderCount = 250;
+        server.pageSize = 40;
+    }
+
+    protected GatewaySettings gatewaySettings()
+    {
+        GatewaySettings settings = newSettings();
+        settings.retryDelay = "1";
+        return settings;
+    }
+
+    public void testOrderListMergesPagesInOrder() throws Exception
+    {
+        GatewayResult res = gateway.orderList( "2019-03-01", "2019-03-31" );
+
+        assertTrue( res.success );
+        assertEquals( 250, res.itemCount );
+        assertEquals( 7, server.pageRequests.get() );
+        JsonArray results = new JsonParser().parse( res.responseString ).getAsJsonObject().getAsJsonArray( "results" );
+        assertEquals( 250, results.size() );
+        for ( int i = 0; i < results.size(); i++ )
+        {
+            assertEquals( String.valueOf( 100000 + i ), results.get( i ).getAsJsonObject().get( "number" ).getAsString() );
+        }
+    }
+
+    public void testOrderListStreamsToWriter() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        GatewayResult res = gateway.orderList( "2019-03-01", "2019-03-31", out );
+
+        assertTrue( res.success );
+        assertEquals( 250, res.itemCount );
+        assertEquals( 250, new JsonParser().parse( out.toString() ).getAsJsonObject().getAsJsonArray( "results" ).size() );
+    }
+
+    public void testServerErrorIsReportedAfterRetries() throws Exception
+    {
+        server.errorRate = 1;
+        GatewayResult res = gateway.ordersPartialUpdate( "100001", "2019-03-04", "processing" );
+
+        assertFalse( res.success );
+        assertEquals( 500, res.responseCode );
+        assertEquals( 4, server.errors.get() );
+    }
+
+    public void testTransientErrorsAreRetried() throws Exception
+    {
+        server.errorRate = 0.3;
+        GatewaySettings settings = newSettings();
+        settings.retries = "20";
+        settings.retryDelay = "1";
+        HillsGateway retrying = new HillsGateway( settings );
+        try
+        {
+            assertEquals( 250, retrying.orderList( "2019-03-01", "2019-03-31" ).itemCount );
+            StringWriter out = new StringWriter();
+            assertEquals( 250, retrying.orderList( "2019-03-01", "2019-03-31", out ).itemCount );
+            assertTrue( retrying.ordersPartialUpdate( "100001", "2019-03-04", "processing" ).success );
+        }
+        finally
+        {
+            retrying.close();
+        }
+    }
+
+    public void testStatusUpdateAndStockUpload() throws Exception
+    {
+        assertTrue( gateway.ordersPartialUpdate( "100001", "2019-03-04", "processing" ).success );
+        assertEquals( 1, server.patchRequests.get() );
+
+        List<StockRecord> records = new ArrayList<StockRecord>();
+        for ( int i = 0; i < 25; i++ )
+        {
+            records.add( new StockRecord( String.valueOf( 500 + i ), new BigDecimal( "99.90" ), BigDecimal.ONE ) );
+        }
+        assertEquals( 25, new StockUploader( gateway, 10, 2, gateway.retryPolicy( 0 ), true ).upload( records ).size() );
+        assertEquals( 3, server.stockRequests.get() );
+        assertEquals( 25, server.stockRecords.get() );
+    }
+
+    public void testStreamingStockUpload() throws Exception
+    {
+        String priceList = "{\"stock_records\":[{\"sku\":\"500\",\"price\":99.9,\"quantity\":1},"
+            + "{\"sku\":\"501\",\"price\":10,\"quantity\":2}]}";
+        assertTrue( gateway.stockRecordsCreate( new StringReader( priceList ), true ).success );
+        assertEquals( 2, server.stockRecords.get() );
+    }
+
+    public void testFailedStockChunkIsRetriedByPolicy() throws Exception
+    {
+        List<StockRecord> records = new ArrayList<StockRecord>();
+        records.add( new StockRecord( "500", new BigDecimal( "99.90" ), BigDecimal.ONE ) );
+        server.errorRate = 1;
+
+        assertEquals( 0, new StockUploader( gateway, 10, 1, gateway.retryPolicy( 2 ), false ).upload( records ).size() );
+        assertEquals( 3, server.errors.get() );
+        assertEquals( 2, gateway.getMetrics().getCounter( Metrics.HTTP_RETRIES ) );
+    }
+
+    public void testRequestsAreRecordedInMetrics() throws Exception
+    {
+        gateway.orderList( "2019-03-01", "2019-03-31" );
+        gateway.ordersPartialUpdate( "100001", "2019-03-04", "processing" );
+
+        String text = gateway.getMetrics().toPrometheus();
+        assertTrue( text, text.contains(
+            "hills_http_responses_total{endpoint=\"GET /distributors_api/v3/orders/\",code=\"200\"} 7" ) );
+        assertTrue( text, text.contains(
+            "hills_http_request_seconds_count{endpoint=\"PATCH /distributors_api/v3/orders/{number}/\"} 1" ) );
+        assertEquals( 7, new JsonParser().parse( gateway.getMetrics().toJson() ).getAsJsonObject()
+            .getAsJsonObject( "requests" ).getAsJsonObject( "GET /distributors_api/v3/orders/" )
+            .getAsJsonObject( "codes" ).get( "200" ).getAsInt() );
+        assertTrue( gateway.getMetrics().getTimeToFirstRequest() > 0 );
+        assertTrue( text, text.contains( "hills_time_to_first_request_seconds " ) );
+    }
+}
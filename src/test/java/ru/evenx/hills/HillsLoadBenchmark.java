@@ -0,0 +1,280 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * Сквозной нагрузочный прогон шлюза и загрузчиков на локальной замене сервиса Hills.
+ * Для каждого объема заказов выполняются сценарии загрузки заказов (слиянием страниц,
+ * конвейером во встроенную БД, потоком), отправки статусов и выгрузки прайс-листа.
+ * По каждому сценарию выводятся время, пропускная способность, процентили задержки
+ * запросов на стороне сервиса и пиковое использование кучи.
+ *
+ * Запуск:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ru.evenx.hills.HillsLoadBenchmark
+ *     -Dexec.args="1000,100000,1000000 latency=20 pageSize=100 errorRate=0"
+ */
+public class HillsLoadBenchmark
+{
+    private static final String BEG_DATE = "2019-03-01";
+    private static final String END_DATE = "2019-03-31";
+    private static final int THREADS = 4;
+    private static final int QUEUE_SIZE = 4;
+    private static final int RETRIES = 3;
+
+    private final MockHillsServer server;
+    private final GatewaySettings gatewaySettings = new GatewaySettings();
+    private int statusLimit = 10000;
+    private int stockLimit = 100000;
+    private JdbcDataSource dataSource;
+
+    public HillsLoadBenchmark( MockHillsServer server )
+    {
+        this.server = server;
+        gatewaySettings.url = server.getUrl();
+        gatewaySettings.token = "benchmark";
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        List<Integer> volumes = new ArrayList<Integer>();
+        MockHillsServer server = new MockHillsServer( 32 );
+        HillsLoadBenchmark benchmark = new HillsLoadBenchmark( server );
+
+        for ( String arg : args )
+        {
+            String[] pair = arg.split( "=", 2 );
+            if ( pair.length == 1 )
+            {
+                for ( String volume : arg.split( "," ) )
+                {
+                    volumes.add( Integer.valueOf( volume.trim() ) );
+                }
+            }
+            else if ( pair[0].equals( "latency" ) )
+            {
+                server.latency = Integer.parseInt( pair[1] );
+            }
+            else if ( pair[0].equals( "pageSize" ) )
+            {
+                server.pageSize = Integer.parseInt( pair[1] );
+            }
+            else if ( pair[0].equals( "errorRate" ) )
+            {
+                server.errorRate = Double.parseDouble( pair[1] );
+            }
+            else if ( pair[0].equals( "threads" ) )
+            {
+                benchmark.gatewaySettings.threads = pair[1];
+            }
+            else if ( pair[0].equals( "statusLimit" ) )
+            {
+                benchmark.statusLimit = Integer.parseInt( pair[1] );
+            }
+            else if ( pair[0].equals( "stockLimit" ) )
+            {
+                benchmark.stockLimit = Integer.parseInt( pair[1] );
+            }
+            else
+            {
+                throw new IllegalArgumentException( "Unknown option: " + arg );
+            }
+        }
+        if ( volumes.isEmpty() )
+        {
+            volumes.add( 1000 );
+            volumes.add( 100000 );
+            volumes.add( 1000000 );
+        }
+
+        server.start();
+        try
+        {
+            System.out.println( String.format( "%-20s %10s %10s %12s %9s %9s %9s %10s",
+                "scenario", "volume", "time ms", "items/s", "p50 ms", "p95 ms", "p99 ms", "heap MB" ) );
+            for ( int volume : volumes )
+            {
+                benchmark.run( volume );
+            }
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    /**
+     * Выполняет все сценарии для заданного количества заказов
+     */
+    public void run( final int volume ) throws Exception
+    {
+        server.orderCount = volume;
+
+        measure( "download-merged", volume, new Scenario()
+        {
+            public int run( HillsGateway gateway ) throws Exception
+            {
+                GatewayResult res = gateway.orderList( BEG_DATE, END_DATE );
+                check( res );
+                EmbeddedOrderSink sink = newSink();
+                sink.accept( res.responseString );
+                sink.complete();
+                return res.itemCount;
+            }
+        } );
+
+        measure( "download-pipelined", volume, new Scenario()
+        {
+            public int run( HillsGateway gateway ) throws Exception
+            {
+                EmbeddedOrderSink sink = newSink();
+                new OrderPipeline( gateway, 0, QUEUE_SIZE ).run( BEG_DATE, END_DATE, sink );
+                sink.complete();
+                return volume;
+            }
+        } );
+
+        measure( "download-streaming", volume, new Scenario()
+        {
+            public int run( HillsGateway gateway ) throws Exception
+            {
+                GatewayResult res = gateway.orderList( BEG_DATE, END_DATE, new NullWriter() );
+                check( res );
+                return res.itemCount;
+            }
+        } );
+
+        final int statuses = Math.min( volume, statusLimit );
+        measure( "status-patch", statuses, new Scenario()
+        {
+            public int run( HillsGateway gateway ) throws Exception
+            {
+                StatusDispatcher dispatcher = new StatusDispatcher( gateway, THREADS, null );
+                for ( int i = 0; i < statuses; i++ )
+                {
+                    dispatcher.submit( String.valueOf( 100000 + i ), "2019-03-04", "processing" );
+                }
+                int retVal = 0;
+                for ( StatusResult result : dispatcher.await() )
+                {
+                    retVal += result.sent.size();
+                }
+                return retVal;
+            }
+        } );
+
+        final int skus = Math.min( volume, stockLimit );
+        measure( "stock-upload", skus, new Scenario()
+        {
+            public int run( HillsGateway gateway ) throws Exception
+            {
+                List<StockRecord> records = new ArrayList<StockRecord>( skus );
+                for ( int i = 0; i < skus; i++ )
+                {
+                    records.add( new StockRecord( String.valueOf( 10000 + i ),
+                        BigDecimal.valueOf( 10000 + i % 5000, 2 ), BigDecimal.valueOf( i % 40 ) ) );
+                }
+                return new StockUploader( gateway, 1000, THREADS,
+                    gateway.retryPolicy( RETRIES ), true ).upload( records ).size();
+            }
+        } );
+    }
+
+    private void measure( String name, int volume, Scenario scenario ) throws Exception
+    {
+        System.gc();
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            pool.resetPeakUsage();
+        }
+        server.reset();
+        dataSource = new JdbcDataSource();
+        dataSource.setURL( "jdbc:h2:mem:" + name + volume + ";DB_CLOSE_DELAY=-1" );
+
+        HillsGateway gateway = new HillsGateway( gatewaySettings );
+        long start = System.nanoTime();
+        int items;
+        String error = null;
+        try
+        {
+            items = scenario.run( gateway );
+        }
+        catch ( Exception | OutOfMemoryError e )
+        {
+            items = 0;
+            error = e.toString();
+        }
+        finally
+        {
+            gateway.close();
+            try ( Connection dbcon = dataSource.getConnection(); Statement stmt = dbcon.createStatement() )
+            {
+                stmt.execute( "SHUTDOWN" );
+            }
+        }
+        long elapsed = Math.max( 1, ( System.nanoTime() - start ) / 1000000 );
+
+        long peakHeap = 0;
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if ( pool.getType() == MemoryType.HEAP )
+            {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        MockHillsServer.LatencyRecorder latencies = server.getLatencies();
+        System.out.println( String.format( "%-20s %10d %10d %12.0f %9.1f %9.1f %9.1f %10d%s",
+            name, volume, elapsed, items * 1000.0 / elapsed,
+            latencies.percentile( 50 ), latencies.percentile( 95 ), latencies.percentile( 99 ),
+            peakHeap / ( 1024 * 1024 ), error == null ? "" : "  FAILED: " + error ) );
+    }
+
+    private static void check( GatewayResult res ) throws HillsException
+    {
+        if ( !res.success )
+        {
+            throw new HillsException( res.responseCode + " " + res.responseString );
+        }
+    }
+
+    private EmbeddedOrderSink newSink() throws Exception
+    {
+        EmbeddedOrderSink sink = new EmbeddedOrderSink( dataSource );
+        sink.createSchema();
+        return sink;
+    }
+
+    private interface Scenario
+    {
+        /**
+         * @return количество обработанных элементов
+         */
+        int run( HillsGateway gateway ) throws Exception;
+    }
+
+    private static class NullWriter extends Writer
+    {
+        public void write( char[] cbuf, int off, int len ) throws IOException
+        {
+        }
+
+        public void flush() throws IOException
+        {
+        }
+
+        public void close() throws IOException
+        {
+        }
+    }
+}
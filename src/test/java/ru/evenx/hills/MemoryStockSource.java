@@ -0,0 +1,48 @@
+package ru.evenx.hills;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Источник изменений остатков и цен в памяти: каждое изменение получает следующий номер,
+ * отметкой служит номер последнего изменения
+ */
+public class MemoryStockSource
+    implements StockSource
+{
+    private final List<StockRecord> changes = new ArrayList<StockRecord>();
+    private final Map<String, StockRecord> current = new LinkedHashMap<String, StockRecord>();
+
+    /**
+     * Изменяет остаток и цену позиции
+     */
+    public synchronized void set( String sku, String price, String quantity )
+    {
+        StockRecord record = new StockRecord( sku, new BigDecimal( price ), new BigDecimal( quantity ) );
+        changes.add( record );
+        current.put( sku, record );
+    }
+
+    /**
+     * Удаляет позицию без записи изменения, как удаление строк остатков в БД
+     */
+    public synchronized void remove( String sku )
+    {
+        current.remove( sku );
+    }
+
+    public synchronized Changes changesSince( String watermark )
+    {
+        int from = watermark == null ? 0 : Integer.parseInt( watermark );
+        return new Changes( new ArrayList<StockRecord>( changes.subList( from, changes.size() ) ),
+            String.valueOf( changes.size() ) );
+    }
+
+    public synchronized List<StockRecord> all()
+    {
+        return new ArrayList<StockRecord>( current.values() );
+    }
+}
@@ -0,0 +1,395 @@
+package ru.evenx.hills;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Локальная замена сервиса Hills для проверки и нагрузочного тестирования:
+ * постраничный список заказов (GET), изменение статуса (PATCH) и выгрузка прайс-листа (POST).
+ * Заказы генерируются по номеру, поэтому объем не ограничен памятью.
+ */
+public class MockHillsServer
+{
+    private static final String API_ORDERS = "/distributors_api/v3/orders/";
+    private static final String API_STOCK_RECORDS = "/distributors_api/v3/stock_records/";
+
+    /** Количество заказов в ответе */
+    public volatile int orderCount = 1000;
+    /** Размер страницы заказов */
+    public volatile int pageSize = 100;
+    /** Задержка обработки запроса, мс */
+    public volatile int latency = 0;
+    /** Доля запросов, завершающихся ошибкой 500 (0..1) */
+    public volatile double errorRate = 0;
+    /** Отдавать ETag страниц заказов и отвечать 304 на If-None-Match */
+    public volatile boolean etags = false;
+    /** Страница заказов, запрос которой завершается ошибкой 500 (0 - нет) */
+    public volatile int failPage = 0;
+    /** Страница заказов, ответ на которую задерживается на slowPageLatency мс (0 - нет) */
+    public volatile int slowPage = 0;
+    public volatile int slowPageLatency = 0;
+    /** Заказ, изменение которого завершается ошибкой failOrderCode (null - нет) */
+    public volatile String failOrder = null;
+    public volatile int failOrderCode = 500;
+
+    public final AtomicInteger pageRequests = new AtomicInteger();
+    public final AtomicInteger patchRequests = new AtomicInteger();
+    public final AtomicInteger stockRequests = new AtomicInteger();
+    public final AtomicInteger stockRecords = new AtomicInteger();
+    public final AtomicInteger errors = new AtomicInteger();
+    /** Успешные изменения заказов в порядке поступления: "номер статус", без статуса - "номер -" */
+    public final List<String> patches = Collections.synchronizedList( new ArrayList<String>() );
+
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param threads - количество потоков обработки запросов
+     * @throws IOException
+     */
+    public MockHillsServer( int threads ) throws IOException
+    {
+        // без TCP_NODELAY ответы на соединениях keep-alive задерживаются алгоритмом Нейгла
+        System.setProperty( "sun.net.httpserver.nodelay", "true" );
+        server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+        executor = Executors.newFixedThreadPool( threads );
+        server.setExecutor( executor );
+        server.createContext( API_ORDERS, new HttpHandler()
+        {
+            public void handle( HttpExchange exchange ) throws IOException
+            {
+                serve( exchange, true );
+            }
+        } );
+        server.createContext( API_STOCK_RECORDS, new HttpHandler()
+        {
+            public void handle( HttpExchange exchange ) throws IOException
+            {
+                serve( exchange, false );
+            }
+        } );
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    public void stop()
+    {
+        server.stop( 0 );
+        executor.shutdownNow();
+    }
+
+    /** Адрес сервиса для GatewaySettings.url */
+    public String getUrl()
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** Задержки обработки запросов на стороне сервиса */
+    public LatencyRecorder getLatencies()
+    {
+        return latencies;
+    }
+
+    public void reset()
+    {
+        pageRequests.set( 0 );
+        patchRequests.set( 0 );
+        stockRequests.set( 0 );
+        stockRecords.set( 0 );
+        errors.set( 0 );
+        patches.clear();
+        latencies.reset();
+    }
+
+    private void serve( HttpExchange exchange, boolean orders ) throws IOException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            if ( latency > 0 )
+            {
+                Thread.sleep( latency );
+            }
+            if ( errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate )
+            {
+                errors.incrementAndGet();
+                drain( exchange.getRequestBody() );
+                respond( exchange, 500, "{\"detail\":\"Internal server error\"}" );
+                return;
+            }
+
+            String method = exchange.getRequestMethod();
+            if ( orders && "GET".equals( method ) )
+            {
+                pageRequests.incrementAndGet();
+                ordersPage( exchange );
+            }
+            else if ( orders && "PATCH".equals( method ) )
+            {
+                patch( exchange );
+            }
+            else if ( !orders && "POST".equals( method ) )
+            {
+                stockRequests.incrementAndGet();
+                stockRecords.addAndGet( countStockRecords( exchange ) );
+                respond( exchange, 201, "{}" );
+            }
+            else
+            {
+                respond( exchange, 405, "{\"detail\":\"Method not allowed\"}" );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            latencies.record( System.nanoTime() - start );
+            exchange.close();
+        }
+    }
+
+    private void ordersPage( HttpExchange exchange ) throws IOException, InterruptedException
+    {
+        Map<String, String> query = query( exchange.getRequestURI() );
+        int page = query.containsKey( "page" ) ? Integer.parseInt( query.get( "page" ) ) : 1;
+        if ( page == slowPage && slowPageLatency > 0 )
+        {
+            Thread.sleep( slowPageLatency );
+        }
+        if ( page == failPage )
+        {
+            errors.incrementAndGet();
+            respond( exchange, 500, "{\"detail\":\"Internal server error\"}" );
+            return;
+        }
+        int count = orderCount;
+        int size = pageSize;
+        int pages = Math.max( 1, ( count + size - 1 ) / size );
+        if ( page < 1 || page > pages )
+        {
+            respond( exchange, 404, "{\"detail\":\"Invalid page.\"}" );
+            return;
+        }
+
+        StringBuilder body = new StringBuilder( size * 600 );
+        body.append( "{\"count\":" ).append( count ).append( ",\"next\":" );
+        body.append( page < pages ? "\"" + getUrl() + API_ORDERS + "?page=" + ( page + 1 ) + "\"" : "null" );
+        body.append( ",\"previous\":" );
+        body.append( page > 1 ? "\"" + getUrl() + API_ORDERS + "?page=" + ( page - 1 ) + "\"" : "null" );
+        body.append( ",\"results\":[" );
+        for ( int i = ( page - 1 ) * size; i < Math.min( page * size, count ); i++ )
+        {
+            if ( i > ( page - 1 ) * size )
+            {
+                body.append( ',' );
+            }
+            appendOrder( body, i );
+        }
+        body.append( "]}" );
+        if ( etags )
+        {
+            String etag = "\"" + Integer.toHexString( body.toString().hashCode() ) + "\"";
+            if ( etag.equals( exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) )
+            {
+                exchange.sendResponseHeaders( 304, -1 );
+                return;
+            }
+            exchange.getResponseHeaders().set( "ETag", etag );
+        }
+        respond( exchange, 200, body.toString() );
+    }
+
+    private void patch( HttpExchange exchange ) throws IOException
+    {
+        String path = exchange.getRequestURI().getPath();
+        String number = path.substring( API_ORDERS.length() ).replace( "/", "" );
+        JsonObject body;
+        try ( InputStreamReader reader = new InputStreamReader( exchange.getRequestBody(), StandardCharsets.UTF_8 ) )
+        {
+            body = new JsonParser().parse( reader ).getAsJsonObject();
+        }
+        if ( number.equals( failOrder ) )
+        {
+            errors.incrementAndGet();
+            respond( exchange, failOrderCode, "{\"detail\":\"Order update failed\"}" );
+            return;
+        }
+        patchRequests.incrementAndGet();
+        JsonElement status = body.get( "status" );
+        patches.add( number + " " + ( status == null ? "-" : status.getAsString() ) );
+        respond( exchange, 200, "{}" );
+    }
+
+    /**
+     * Заказ с номером 100000 + index в формате сервиса Hills
+     */
+    static void appendOrder( StringBuilder body, int index )
+    {
+        int number = 100000 + index;
+        body.append( "{\"number\":\"" ).append( number ).append( "\",\"status\":\"created\"," )
+            .append( "\"date_placed\":\"2019-03-01T10:15:30.123Z\",\"shipping_date\":\"2019-03-04\",\"bonus\":false," )
+            .append( "\"user\":{\"id\":" ).append( 5000 + index % 300 ).append( ",\"is_activated_by_distributor\":true," )
+            .append( "\"clinic\":{\"customer_id\":\"1AB" ).append( 100 + index % 900 ).append( "C45678\"," )
+            .append( "\"delivery_id\":\"D" ).append( index % 50 ).append( "\",\"client_id\":\"C" ).append( index % 300 )
+            .append( "\"}},\"lines\":[" );
+        int lines = 1 + index % 3;
+        for ( int j = 0; j < lines; j++ )
+        {
+            if ( j > 0 )
+            {
+                body.append( ',' );
+            }
+            body.append( "{\"sku\":\"" ).append( 10000 + ( index + j * 7 ) % 400 )
+                .append( "\",\"final_price\":" ).append( 100 + ( index + j ) % 900 ).append( ".5" )
+                .append( ",\"discount\":0,\"quantity\":" ).append( 1 + j ).append( '}' );
+        }
+        body.append( "]}" );
+    }
+
+    private int countStockRecords( HttpExchange exchange ) throws IOException
+    {
+        InputStream in = exchange.getRequestBody();
+        if ( "gzip".equalsIgnoreCase( exchange.getRequestHeaders().getFirst( "Content-Encoding" ) ) )
+        {
+            in = new GZIPInputStream( in );
+        }
+        int retVal = 0;
+        try ( JsonReader reader = new JsonReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) ) )
+        {
+            reader.beginObject();
+            while ( reader.hasNext() )
+            {
+                if ( reader.nextName().equals( "stock_records" ) && reader.peek() == JsonToken.BEGIN_ARRAY )
+                {
+                    reader.beginArray();
+                    while ( reader.hasNext() )
+                    {
+                        reader.skipValue();
+                        retVal++;
+                    }
+                    reader.endArray();
+                }
+                else
+                {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return retVal;
+    }
+
+    private static Map<String, String> query( URI uri )
+    {
+        Map<String, String> retVal = new HashMap<String, String>();
+        if ( uri.getRawQuery() != null )
+        {
+            for ( String pair : uri.getRawQuery().split( "&" ) )
+            {
+                String[] parts = pair.split( "=", 2 );
+                retVal.put( parts[0], parts.length > 1 ? parts[1] : "" );
+            }
+        }
+        return retVal;
+    }
+
+    private static void drain( InputStream in ) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        while ( in.read( buffer ) != -1 )
+        {
+            // skip
+        }
+    }
+
+    private static void respond( HttpExchange exchange, int code, String body ) throws IOException
+    {
+        byte[] bytes = body.getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+        exchange.sendResponseHeaders( code, bytes.length );
+        try ( OutputStream out = exchange.getResponseBody() )
+        {
+            out.write( bytes );
+        }
+    }
+
+    /**
+     * Накопитель задержек с расчетом процентилей
+     */
+    public static class LatencyRecorder
+    {
+        private long[] values = new long[1024];
+        private int size = 0;
+        private final AtomicLong total = new AtomicLong();
+
+        public synchronized void record( long nanos )
+        {
+            if ( size == values.length )
+            {
+                values = Arrays.copyOf( values, size * 2 );
+            }
+            values[size++] = nanos;
+            total.addAndGet( nanos );
+        }
+
+        public synchronized void reset()
+        {
+            values = new long[1024];
+            size = 0;
+            total.set( 0 );
+        }
+
+        public synchronized int count()
+        {
+            return size;
+        }
+
+        /**
+         * @param percentile - процентиль (0..100)
+         * @return задержка, мс
+         */
+        public synchronized double percentile( double percentile )
+        {
+            if ( size == 0 )
+            {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf( values, size );
+            Arrays.sort( sorted );
+            int index = (int) Math.ceil( percentile / 100.0 * size ) - 1;
+            return sorted[Math.max( 0, Math.min( index, size - 1 ) )] / 1e6;
+        }
+    }
+}
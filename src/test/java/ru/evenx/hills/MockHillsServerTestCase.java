@@ -0,0 +1,48 @@
+package ru.evenx.hills;
+
+import junit.framework.TestCase;
+
+/**
+ * Основа тестов, работающих с локальной заменой сервиса Hills: запускает сервер и шлюз к нему
+ * перед каждым тестом и останавливает их после
+ */
+public abstract class MockHillsServerTestCase
+    extends TestCase
+{
+    protected MockHillsServer server;
+    protected HillsGateway gateway;
+
+    protected void setUp() throws Exception
+    {
+        server = new MockHillsServer( 4 );
+        server.start();
+        gateway = new HillsGateway( gatewaySettings() );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        gateway.close();
+        server.stop();
+    }
+
+    /**
+     * Настройки шлюза, создаваемого перед каждым тестом. По умолчанию без повторов запросов
+     */
+    protected GatewaySettings gatewaySettings()
+    {
+        GatewaySettings settings = newSettings();
+        settings.retries = "0";
+        return settings;
+    }
+
+    /**
+     * @return настройки шлюза к запущенному серверу с параметрами повторов по умолчанию
+     */
+    protected GatewaySettings newSettings()
+    {
+        GatewaySettings settings = new GatewaySettings();
+        settings.url = server.getUrl();
+        settings.token = "test";
+        return settings;
+    }
+}
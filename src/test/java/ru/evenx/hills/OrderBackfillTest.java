@@ -0,0 +1,98 @@
+package ru.evenx.hills;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Проверка дозагрузки истории заказов по интервалам
+ */
+public class OrderBackfillTest
+    extends MockHillsServerTestCase
+{
+    private File file;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        server.orderCount = 30;
+        server.pageSize = 10;
+
+        file = File.createTempFile( "hills-backfill", ".progress" );
+        file.delete();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testRangeIsSplitIntoSlices() throws Exception
+    {
+        List<String[]> slices = OrderBackfill.slices( "2019-01-28", "2019-02-12", 7 );
+
+        assertEquals( 3, slices.size() );
+        assertEquals( "2019-01-28", slices.get( 0 )[0] );
+        assertEquals( "2019-02-04", slices.get( 0 )[1] );
+        assertEquals( "2019-02-04", slices.get( 1 )[0] );
+        assertEquals( "2019-02-11", slices.get( 2 )[0] );
+        assertEquals( "2019-02-12", slices.get( 2 )[1] );
+        assertEquals( 31, OrderBackfill.slices( "2019-01-01", "2019-02-01", 1 ).size() );
+        assertTrue( OrderBackfill.slices( "2019-02-01", "2019-02-01", 1 ).isEmpty() );
+    }
+
+    public void testLoadedSlicesAreSkippedOnRerun() throws Exception
+    {
+        CountingSink sink = new CountingSink();
+        BackfillProgress progress = new BackfillProgress( file );
+        progress.record( "2019-03-01", "2019-03-02", 30 );
+        progress.record( "2019-03-02", "2019-03-03", 30 );
+        progress.close();
+
+        progress = new BackfillProgress( file );
+        assertEquals( 150, new OrderBackfill( gateway, sink, 3, progress ).run( "2019-03-01", "2019-03-08", 1 ) );
+        progress.close();
+
+        assertEquals( 5, sink.batches.get() );
+        assertEquals( 150, sink.orders.get() );
+        assertEquals( 15, server.pageRequests.get() );
+        assertTrue( new BackfillProgress( file ).isDone( "2019-03-07", "2019-03-08" ) );
+    }
+
+    public void testFailedSlicesAreReported() throws Exception
+    {
+        server.errorRate = 1;
+        BackfillProgress progress = new BackfillProgress( file );
+        try
+        {
+            new OrderBackfill( gateway, new CountingSink(), 2, progress ).run( "2019-03-01", "2019-03-03", 1 );
+            fail( "Failed slices must be reported" );
+        }
+        catch ( HillsException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "2 of 2 slices failed" ) );
+        }
+        assertFalse( progress.isDone( "2019-03-01", "2019-03-02" ) );
+        progress.close();
+    }
+
+    private static class CountingSink
+        implements OrderSink
+    {
+        final AtomicInteger batches = new AtomicInteger();
+        final AtomicInteger orders = new AtomicInteger();
+
+        public void accept( String document )
+        {
+            batches.incrementAndGet();
+            orders.addAndGet( new JsonParser().parse( document ).getAsJsonObject().getAsJsonArray( "results" ).size() );
+        }
+
+        public void complete()
+        {
+        }
+    }
+}
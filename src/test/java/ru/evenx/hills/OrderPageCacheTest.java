@@ -0,0 +1,118 @@
+package ru.evenx.hills;
+
+import java.io.File;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+/**
+ * Проверка кэша страниц заказов
+ */
+public class OrderPageCacheTest
+    extends MockHillsServerTestCase
+{
+    private File dir;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        server.orderCount = 100;
+        server.pageSize = 40;
+
+        dir = File.createTempFile( "hills-orders", ".cache" );
+        dir.delete();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        File[] files = dir.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                file.delete();
+            }
+        }
+        dir.delete();
+        super.tearDown();
+    }
+
+    private GatewayResult download( OrderPageCache cache ) throws Exception
+    {
+        return download( cache, "2019-03-01", "2019-03-31" );
+    }
+
+    private GatewayResult download( OrderPageCache cache, String begDate, String endDate ) throws Exception
+    {
+        GatewayResult res = gateway.orderList( begDate, endDate, cache );
+        assertTrue( res.success );
+        return res;
+    }
+
+    private static int orders( GatewayResult res )
+    {
+        JsonArray results = new JsonParser().parse( res.responseString ).getAsJsonObject().getAsJsonArray( "results" );
+        return results.size();
+    }
+
+    public void testNotModifiedPagesAreSkipped() throws Exception
+    {
+        server.etags = true;
+        OrderPageCache cache = new OrderPageCache( dir );
+        assertEquals( 100, orders( download( cache ) ) );
+        assertEquals( 3, cache.getMisses() );
+        cache.commit();
+
+        cache = new OrderPageCache( dir );
+        assertEquals( 0, orders( download( cache ) ) );
+        assertEquals( 3, cache.getHits() );
+        assertEquals( 3, cache.getNotModified() );
+        assertTrue( cache.getBytesSaved() > 0 );
+        assertEquals( 100, cache.getHitRate() );
+    }
+
+    public void testUnchangedPagesAreFoundByHash() throws Exception
+    {
+        OrderPageCache cache = new OrderPageCache( dir );
+        download( cache );
+        cache.commit();
+
+        /* новые заказы меняют count и next на всех страницах, но первые две страницы те же */
+        server.orderCount = 130;
+        cache = new OrderPageCache( dir );
+        assertEquals( 50, orders( download( cache ) ) );
+        assertEquals( 2, cache.getHits() );
+        assertEquals( 0, cache.getNotModified() );
+        assertEquals( 2, cache.getMisses() );
+    }
+
+    public void testRolledBackPagesAreDownloadedAgain() throws Exception
+    {
+        OrderPageCache cache = new OrderPageCache( dir );
+        download( cache );
+        cache.rollback();
+
+        cache = new OrderPageCache( dir );
+        assertEquals( 100, orders( download( cache ) ) );
+        assertEquals( 0, cache.getHits() );
+    }
+
+    public void testPagesAreFoundAfterDateRangeMoves() throws Exception
+    {
+        server.etags = true;
+        OrderPageCache cache = new OrderPageCache( dir );
+        download( cache, "2019-03-01", "2019-03-02" );
+        cache.commit();
+
+        /* на следующий день диапазон другой: условный запрос не отправляется, страницы сравниваются по хэшу */
+        cache = new OrderPageCache( dir );
+        assertEquals( 0, orders( download( cache, "2019-03-01", "2019-03-03" ) ) );
+        assertEquals( 3, cache.getHits() );
+        assertEquals( 0, cache.getNotModified() );
+        cache.commit();
+
+        cache = new OrderPageCache( dir );
+        assertEquals( 0, orders( download( cache, "2019-03-01", "2019-03-03" ) ) );
+        assertEquals( 3, cache.getNotModified() );
+    }
+}
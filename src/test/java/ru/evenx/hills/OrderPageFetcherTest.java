@@ -0,0 +1,49 @@
+package ru.evenx.hills;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+/**
+ * Проверка параллельной загрузки страниц заказов
+ */
+public class OrderPageFetcherTest
+    extends MockHillsServerTestCase
+{
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        server.orderCount = 250;
+        server.pageSize = 40;
+    }
+
+    public void testPagesAreMergedInPageOrder() throws Exception
+    {
+        /* вторая страница приходит последней */
+        server.slowPage = 2;
+        server.slowPageLatency = 200;
+        GatewayResult res = new OrderPageFetcher( gateway, 4 ).fetch( "2019-03-01", "2019-03-31" );
+
+        assertTrue( res.success );
+        assertEquals( 250, res.itemCount );
+        assertEquals( 7, server.pageRequests.get() );
+        JsonArray results = new JsonParser().parse( res.responseString ).getAsJsonObject().getAsJsonArray( "results" );
+        for ( int i = 0; i < results.size(); i++ )
+        {
+            assertEquals( String.valueOf( 100000 + i ), results.get( i ).getAsJsonObject().get( "number" ).getAsString() );
+        }
+    }
+
+    public void testFailedPageStopsRemainingPages() throws Exception
+    {
+        server.orderCount = 2000;
+        server.pageSize = 100;
+        server.latency = 100;
+        server.failPage = 2;
+        GatewayResult res = new OrderPageFetcher( gateway, 2 ).fetch( "2019-03-01", "2019-03-31" );
+
+        assertFalse( res.success );
+        assertEquals( 500, res.responseCode );
+        /* первая страница, ошибочная и уже начатые параллельно; остальные 17 страниц не запрашиваются */
+        assertTrue( String.valueOf( server.pageRequests.get() ), server.pageRequests.get() <= 5 );
+    }
+}
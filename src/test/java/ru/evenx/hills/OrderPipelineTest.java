@@ -0,0 +1,163 @@
+package ru.evenx.hills;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+/**
+ * Проверка конвейерной загрузки заказов
+ */
+public class OrderPipelineTest
+    extends MockHillsServerTestCase
+{
+    private File checkpointFile;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        server.orderCount = 250;
+        server.pageSize = 40;
+
+        checkpointFile = File.createTempFile( "hills-download", ".checkpoint" );
+        checkpointFile.delete();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        checkpointFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Приемник, запоминающий номера заказов каждого пакета
+     */
+    private static class CollectingSink
+        implements OrderSink
+    {
+        final List<List<String>> batches = Collections.synchronizedList( new ArrayList<List<String>>() );
+        final long delay;
+
+        CollectingSink( long delay )
+        {
+            this.delay = delay;
+        }
+
+        public void accept( String orders ) throws HillsException
+        {
+            JsonArray results = new JsonParser().parse( orders ).getAsJsonObject().getAsJsonArray( "results" );
+            List<String> numbers = new ArrayList<String>();
+            for ( int i = 0; i < results.size(); i++ )
+            {
+                numbers.add( results.get( i ).getAsJsonObject().get( "number" ).getAsString() );
+            }
+            batches.add( numbers );
+            try
+            {
+                Thread.sleep( delay );
+            }
+            catch ( InterruptedException e )
+            {
+                throw new HillsException( e );
+            }
+        }
+
+        public void complete()
+        {
+        }
+
+        List<String> orders()
+        {
+            List<String> retVal = new ArrayList<String>();
+            for ( List<String> batch : batches )
+            {
+                retVal.addAll( batch );
+            }
+            return retVal;
+        }
+    }
+
+    public void testBatchesAreHandedOverInOrder() throws Exception
+    {
+        /* медленный приемник и очередь из одного пакета: поставщик ждет приемника */
+        CollectingSink sink = new CollectingSink( 10 );
+        DownloadCheckpoint checkpoint = new DownloadCheckpoint( checkpointFile );
+        new OrderPipeline( gateway, 30, 1 ).run( "2019-03-01", "2019-03-31", 1, sink, checkpoint );
+
+        assertEquals( 9, sink.batches.size() );
+        assertEquals( 10, sink.batches.get( 8 ).size() );
+        List<String> orders = sink.orders();
+        assertEquals( 250, orders.size() );
+        for ( int i = 0; i < orders.size(); i++ )
+        {
+            assertEquals( String.valueOf( 100000 + i ), orders.get( i ) );
+        }
+        assertEquals( 7, checkpoint.getPage() );
+        assertEquals( 250, gateway.getMetrics().getCounter( Metrics.ORDERS_DOWNLOADED ) );
+    }
+
+    public void testProducerErrorEndsPipeline() throws Exception
+    {
+        server.failPage = 3;
+        CollectingSink sink = new CollectingSink( 0 );
+        DownloadCheckpoint checkpoint = new DownloadCheckpoint( checkpointFile );
+        try
+        {
+            new OrderPipeline( gateway, 0, 4 ).run( "2019-03-01", "2019-03-31", 1, sink, checkpoint );
+            fail( "Failed page must be reported" );
+        }
+        catch ( HillsException e )
+        {
+            /* пакеты до ошибки записаны, отметка указывает на последнюю записанную страницу */
+            assertEquals( 2, sink.batches.size() );
+            assertEquals( 80, sink.orders().size() );
+            assertTrue( checkpoint.load() );
+            assertEquals( 2, checkpoint.getPage() );
+        }
+    }
+
+    public void testDownloadResumesFromCheckpointPage() throws Exception
+    {
+        CollectingSink sink = new CollectingSink( 0 );
+        new OrderPipeline( gateway, 0, 4 ).run( "2019-03-01", "2019-03-31", 6, sink, null );
+
+        assertEquals( 2, sink.batches.size() );
+        assertEquals( "100200", sink.orders().get( 0 ) );
+        assertEquals( 50, sink.orders().size() );
+    }
+
+    public void testProducerErrorIsRethrownWithoutHanging() throws Exception
+    {
+        GatewaySettings settings = newSettings();
+        HillsGateway failing = new HillsGateway( settings )
+        {
+            GatewayResult orderListPaged( String page, String begDate, String endDate, OrderPageCache cache )
+                throws IOException
+            {
+                if ( "2".equals( page ) )
+                {
+                    throw new StackOverflowError();
+                }
+                return super.orderListPaged( page, begDate, endDate, cache );
+            }
+        };
+        CollectingSink sink = new CollectingSink( 0 );
+        try
+        {
+            new OrderPipeline( failing, 0, 4 ).run( "2019-03-01", "2019-03-31", sink );
+            fail( "Producer error must be rethrown" );
+        }
+        catch ( StackOverflowError e )
+        {
+            assertEquals( 1, sink.batches.size() );
+        }
+        finally
+        {
+            failing.close();
+        }
+    }
+}
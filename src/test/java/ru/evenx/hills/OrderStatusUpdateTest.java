@@ -0,0 +1,62 @@
+package ru.evenx.hills;
+
+import java.io.File;
+
+/**
+ * Проверка выбора запросов смены статуса и даты доставки заказа
+ */
+public class OrderStatusUpdateTest
+    extends MockHillsServerTestCase
+{
+    private File journalFile;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        journalFile = File.createTempFile( "hills-status", ".journal" );
+        journalFile.delete();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        journalFile.delete();
+        super.tearDown();
+    }
+
+    public void testOrderAtTargetIsSkippedWithoutJournal() throws Exception
+    {
+        StatusDispatcher dispatcher = new StatusDispatcher( gateway, 2, null );
+        StatusPlanner planner = new StatusPlanner();
+        Hills hills = new Hills();
+        hills.orderStatusUpdate( dispatcher, planner, null, "100001", "awaiting_delivery", "2019-03-04",
+            StatusPlanner.AWAITING_DELIVERY );
+        hills.orderStatusUpdate( dispatcher, planner, null, "100002", "created", "2019-03-04",
+            StatusPlanner.AWAITING_DELIVERY );
+        dispatcher.await();
+
+        assertEquals( "[100002 processing, 100002 awaiting_delivery]", server.patches.toString() );
+        assertEquals( 2, planner.getPlanned() );
+        assertEquals( 1, planner.getAvoided() );
+    }
+
+    public void testChangedShippingDateIsSentAlone() throws Exception
+    {
+        StatusJournal journal = new StatusJournal( journalFile );
+        journal.record( "100001", "awaiting_delivery", "2019-03-04" );
+        journal.record( "100002", "awaiting_delivery", "2019-03-04" );
+        StatusDispatcher dispatcher = new StatusDispatcher( gateway, 2, journal );
+        StatusPlanner planner = new StatusPlanner();
+        Hills hills = new Hills();
+        hills.orderStatusUpdate( dispatcher, planner, journal, "100001", "awaiting_delivery", "2019-03-05",
+            StatusPlanner.AWAITING_DELIVERY );
+        hills.orderStatusUpdate( dispatcher, planner, journal, "100002", "awaiting_delivery", "2019-03-04",
+            StatusPlanner.AWAITING_DELIVERY );
+        dispatcher.await();
+        journal.close();
+
+        assertEquals( "[100001 -]", server.patches.toString() );
+        journal = new StatusJournal( journalFile );
+        assertEquals( "awaiting_delivery", journal.lastPushed( "100001", "2019-03-05" ) );
+        journal.close();
+    }
+}
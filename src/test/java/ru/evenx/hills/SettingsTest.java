@@ -0,0 +1,107 @@
+package ru.evenx.hills;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Проверка разбора файла настроек и настроек потребителей
+ */
+public class SettingsTest
+    extends TestCase
+{
+    private static final String SETTINGS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<settings>\n"
+        + "  <db name=\"CSALES\" login=\"hills\" password=\"secret\" poolSize=\"2\"/>\n"
+        + "  <gateway url=\"https://hills.example\" token=\"common\" retries=\"5\"/>\n"
+        + "  <operation> download </operation>\n"
+        + "  <logmail host=\"smtp.example\" port=\"25\">\n"
+        + "    <recipient>dev@example.com</recipient>\n"
+        + "    <recipient>ops@example.com</recipient>\n"
+        + "  </logmail>\n"
+        + "  <download mode=\"pipelined\" batch=\"200\" unknown=\"ignored\"/>\n"
+        + "  <unknown><nested/></unknown>\n"
+        + "  <!-- комментарий -->\n"
+        + "  <status threads=\"8\"/>\n"
+        + "  <tenant name=\"csales\"/>\n"
+        + "  <tenant name=\"evsurg\">\n"
+        + "    <db name=\"EVSURG\" login=\"hills\" password=\"other\"/>\n"
+        + "    <operation>upload</operation>\n"
+        + "    <operation>download</operation>\n"
+        + "  </tenant>\n"
+        + "</settings>\n";
+
+    public void testSettingsAreRead() throws Exception
+    {
+        Settings settings = SettingsReader.read( new ByteArrayInputStream( SETTINGS.getBytes( StandardCharsets.UTF_8 ) ) );
+
+        assertEquals( "CSALES", settings.db.name );
+        assertEquals( "2", settings.db.poolSize );
+        assertNull( settings.db.url );
+        assertEquals( "common", settings.gateway.token );
+        assertEquals( "5", settings.gateway.retries );
+        assertEquals( "download", settings.operation.value );
+        assertEquals( 2, settings.logmail.recipients.size() );
+        assertEquals( "ops@example.com", settings.logmail.recipients.get( 1 ).value );
+        assertEquals( "pipelined", settings.download.mode );
+        assertEquals( "200", settings.download.batch );
+        assertEquals( "8", settings.status.threads );
+        assertNotNull( settings.upload );
+        assertNull( settings.upload.delta );
+
+        assertEquals( 2, settings.tenants.size() );
+        assertEquals( "csales", settings.tenants.get( 0 ).name );
+        assertNull( settings.tenants.get( 0 ).db );
+        TenantSettings evsurg = settings.tenants.get( 1 );
+        assertEquals( "EVSURG", evsurg.db.name );
+        assertEquals( 2, evsurg.operations.size() );
+        assertEquals( "upload", evsurg.operations.get( 0 ).value );
+    }
+
+    public void testWrongRootIsRejected() throws Exception
+    {
+        try
+        {
+            SettingsReader.read( new ByteArrayInputStream( "<config/>".getBytes( StandardCharsets.UTF_8 ) ) );
+            fail( "Wrong root element must be rejected" );
+        }
+        catch ( HillsException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "<settings>" ) );
+        }
+    }
+
+    public void testTenantOverridesCommonSections() throws Exception
+    {
+        Settings settings = new Settings();
+        settings.db = new Db();
+        settings.db.name = "CSALES";
+        settings.gateway = new GatewaySettings();
+        settings.gateway.token = "common";
+        settings.download.mode = "pipelined";
+        settings.status.threads = "8";
+
+        TenantSettings csales = new TenantSettings();
+        csales.name = "csales";
+        Settings common = settings.forTenant( csales );
+        assertSame( settings.db, common.db );
+        assertSame( settings.gateway, common.gateway );
+        assertEquals( "pipelined", common.download.mode );
+
+        TenantSettings evsurg = new TenantSettings();
+        evsurg.name = "evsurg";
+        evsurg.db = new Db();
+        evsurg.db.name = "EVSURG";
+        evsurg.gateway = new GatewaySettings();
+        evsurg.gateway.token = "evsurg";
+        evsurg.download = new DownloadSettings();
+        evsurg.download.mode = "streaming";
+        Settings own = settings.forTenant( evsurg );
+        assertEquals( "EVSURG", own.db.name );
+        assertEquals( "evsurg", own.gateway.token );
+        assertEquals( "streaming", own.download.mode );
+        assertEquals( "8", own.status.threads );
+        assertEquals( "CSALES", settings.db.name );
+    }
+}
@@ -0,0 +1,112 @@
+package ru.evenx.hills;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка параллельной отправки статусов заказов
+ */
+public class StatusDispatcherTest
+    extends MockHillsServerTestCase
+{
+    private Map<String, List<String>> patchesByOrder()
+    {
+        Map<String, List<String>> retVal = new HashMap<String, List<String>>();
+        synchronized ( server.patches )
+        {
+            for ( String patch : server.patches )
+            {
+                String[] fields = patch.split( " " );
+                if ( !retVal.containsKey( fields[0] ) )
+                {
+                    retVal.put( fields[0], new ArrayList<String>() );
+                }
+                retVal.get( fields[0] ).add( fields[1] );
+            }
+        }
+        return retVal;
+    }
+
+    public void testStatusesOfOneOrderAreSentInOrder() throws Exception
+    {
+        server.latency = 2;
+        StatusDispatcher dispatcher = new StatusDispatcher( gateway, 4, null );
+        for ( int i = 0; i < 20; i++ )
+        {
+            String number = String.valueOf( 100000 + i );
+            dispatcher.submit( number, "2019-03-04", "processing", "awaiting_delivery" );
+            dispatcher.submit( number, "2019-03-04", "done" );
+        }
+        for ( StatusResult result : dispatcher.await() )
+        {
+            assertTrue( result.error, result.isSuccess() );
+            assertEquals( 3, result.sent.size() );
+        }
+
+        Map<String, List<String>> patches = patchesByOrder();
+        assertEquals( 20, patches.size() );
+        for ( List<String> statuses : patches.values() )
+        {
+            assertEquals( "[processing, awaiting_delivery, done]", statuses.toString() );
+        }
+    }
+
+    public void testStatusesAfterErrorAreSkipped() throws Exception
+    {
+        server.failOrder = "100001";
+        StatusDispatcher dispatcher = new StatusDispatcher( gateway, 2, null );
+        dispatcher.submit( "100001", "2019-03-04", "processing", "awaiting_delivery" );
+        dispatcher.submitShippingDate( "100001", "2019-03-05", "awaiting_delivery" );
+        dispatcher.submit( "100002", "2019-03-04", "processing" );
+        dispatcher.submitShippingDate( "100002", "2019-03-05", "processing" );
+
+        Map<String, StatusResult> results = new HashMap<String, StatusResult>();
+        for ( StatusResult result : dispatcher.await() )
+        {
+            results.put( result.orderNumber, result );
+        }
+        assertFalse( results.get( "100001" ).isSuccess() );
+        assertEquals( "processing", results.get( "100001" ).failedStatus );
+        assertTrue( results.get( "100001" ).sent.isEmpty() );
+        assertEquals( 1, server.errors.get() );
+
+        assertTrue( results.get( "100002" ).isSuccess() );
+        assertEquals( "[processing, -]", patchesByOrder().get( "100002" ).toString() );
+        assertFalse( patchesByOrder().containsKey( "100001" ) );
+    }
+
+    public void testClientErrorIsRejectedAndServerErrorIsNot() throws Exception
+    {
+        server.failOrder = "100001";
+        server.failOrderCode = 400;
+        StatusDispatcher dispatcher = new StatusDispatcher( gateway, 1, null );
+        dispatcher.submit( "100001", "2019-03-04", "done" );
+        assertTrue( dispatcher.await().iterator().next().isRejected() );
+
+        server.failOrderCode = 503;
+        dispatcher = new StatusDispatcher( gateway, 1, null );
+        dispatcher.submit( "100001", "2019-03-04", "done" );
+        StatusResult result = dispatcher.await().iterator().next();
+        assertFalse( result.isSuccess() );
+        assertFalse( result.isRejected() );
+    }
+
+    public void testFullLaneBlocksSubmit() throws Exception
+    {
+        server.latency = 50;
+        StatusDispatcher dispatcher = new StatusDispatcher( gateway, 1, null, 1 );
+        long start = System.nanoTime();
+        for ( int i = 0; i < 5; i++ )
+        {
+            dispatcher.submit( String.valueOf( 100000 + i ), "2019-03-04", "processing" );
+        }
+        /* один заказ отправляется, один ждет в очереди; остальные ставятся по мере отправки */
+        long blocked = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        assertTrue( String.valueOf( blocked ), blocked >= 100 );
+        assertEquals( 5, dispatcher.await().size() );
+        assertEquals( 5, server.patches.size() );
+    }
+}
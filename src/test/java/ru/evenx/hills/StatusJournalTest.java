@@ -0,0 +1,81 @@
+package ru.evenx.hills;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Проверка журнала отправленных статусов
+ */
+public class StatusJournalTest 
+    extends TestCase
+{
+    private File file;
+
+    protected void setUp() throws IOException
+    {
+        file = File.createTempFile( "hills-status", ".journal" );
+        file.delete();
+    }
+
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    public void testRecordedStatusIsPushedAfterReopen() throws IOException
+    {
+        StatusJournal journal = new StatusJournal( file );
+        assertNull( journal.lastPushed( "100", "2019-01-10" ) );
+        journal.record( "100", "done", "2019-01-10" );
+        journal.record( "200", "cancelled", null );
+        journal.close();
+
+        journal = new StatusJournal( file );
+        assertEquals( "done", journal.lastPushed( "100", "2019-01-10" ) );
+        assertNull( journal.lastPushed( "100", "2019-01-11" ) );
+        assertEquals( "cancelled", journal.lastPushed( "200", null ) );
+        journal.close();
+    }
+
+    public void testLastRecordWinsAfterCompaction() throws IOException
+    {
+        StatusJournal journal = new StatusJournal( file );
+        journal.record( "100", "awaiting_delivery", "2019-01-10" );
+        journal.record( "100", "done", "2019-01-10" );
+        journal.record( "100", "cancelled", "" );
+        journal.close();
+
+        journal = new StatusJournal( file );
+        assertEquals( "cancelled", journal.lastPushed( "100", null ) );
+        assertNull( journal.lastPushed( "100", "2019-01-10" ) );
+        journal.close();
+    }
+
+    public void testLastPushedStatusOfInterruptedSequence() throws IOException
+    {
+        StatusJournal journal = new StatusJournal( file );
+        journal.record( "100", "done", "2019-01-10" );
+        journal.close();
+
+        journal = new StatusJournal( file );
+        assertEquals( "done", journal.lastPushed( "100", "2019-01-10" ) );
+        assertNull( journal.lastPushed( "100", "2019-01-11" ) );
+        assertNull( journal.lastPushed( "200", null ) );
+        journal.close();
+    }
+
+    public void testRecordsSurviveWithoutClose() throws IOException
+    {
+        /* процесс завершился аварийно: журнал не закрыт */
+        StatusJournal journal = new StatusJournal( file );
+        journal.record( "100", "processing", "2019-01-10" );
+        journal.record( "100", "awaiting_delivery", "2019-01-10" );
+
+        StatusJournal reopened = new StatusJournal( file );
+        assertEquals( "awaiting_delivery", reopened.lastPushed( "100", "2019-01-10" ) );
+        reopened.close();
+        journal.close();
+    }
+}
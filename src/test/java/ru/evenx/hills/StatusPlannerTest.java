@@ -0,0 +1,41 @@
+package ru.evenx.hills;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Проверка планирования смены статусов заказа
+ */
+public class StatusPlannerTest
+    extends TestCase
+{
+    public void testShortestValidPath()
+    {
+        StatusPlanner planner = new StatusPlanner();
+        assertEquals( Arrays.asList( "processing", "awaiting_delivery", "done" ), planner.plan( "created", "done" ) );
+        assertEquals( Arrays.asList( "awaiting_delivery" ), planner.plan( "awaiting_payment", "awaiting_delivery" ) );
+        assertEquals( Arrays.asList( "cancelled" ), planner.plan( "processing", "cancelled" ) );
+        assertEquals( 5, planner.getPlanned() );
+        assertEquals( 0, planner.getAvoided() );
+    }
+
+    public void testRefusedTransitionsAreAvoided()
+    {
+        StatusPlanner planner = new StatusPlanner();
+        assertEquals( Collections.emptyList(), planner.plan( "done", "done" ) );
+        assertEquals( Collections.emptyList(), planner.plan( "done", "cancelled" ) );
+        assertEquals( Collections.emptyList(), planner.plan( "awaiting_delivery", "processing" ) );
+        assertEquals( Collections.emptyList(), planner.plan( "unknown", "done" ) );
+        assertEquals( 0, planner.getPlanned() );
+        assertEquals( 4, planner.getAvoided() );
+    }
+
+    public void testCurrentStatusPrefersLaterOne()
+    {
+        assertEquals( "awaiting_delivery", StatusPlanner.current( "awaiting_delivery", "created" ) );
+        assertEquals( "cancelled", StatusPlanner.current( "awaiting_delivery", "cancelled" ) );
+        assertEquals( "created", StatusPlanner.current( null, "created" ) );
+    }
+}
@@ -0,0 +1,131 @@
+package ru.evenx.hills;
+
+import java.io.File;
+
+/**
+ * Проверка выгрузки остатков и цен по изменениям
+ */
+public class StockFeedTest
+    extends MockHillsServerTestCase
+{
+    private MemoryStockSource source;
+    private File snapshotFile;
+    private File watermarkFile;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        source = new MemoryStockSource();
+        snapshotFile = File.createTempFile( "hills-feed", ".snapshot" );
+        snapshotFile.delete();
+        watermarkFile = File.createTempFile( "hills-feed", ".watermark" );
+        watermarkFile.delete();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        snapshotFile.delete();
+        watermarkFile.delete();
+        super.tearDown();
+    }
+
+    private StockFeed feed( long window, int batchSize ) throws Exception
+    {
+        return feed( window, batchSize, 0 );
+    }
+
+    private StockFeed feed( long window, int batchSize, int rescanHours ) throws Exception
+    {
+        return new StockFeed( source, gateway, new StockSnapshot( snapshotFile ), new Watermark( watermarkFile ),
+            window, batchSize, false, rescanHours );
+    }
+
+    public void testRepeatedChangesAreCoalescedAndBatched() throws Exception
+    {
+        StockFeed feed = feed( 0, 2 );
+        source.set( "501", "10.00", "5" );
+        source.set( "502", "20.00", "1" );
+        source.set( "501", "10.00", "4" );
+        feed.poll();
+        source.set( "501", "10.00", "3" );
+        source.set( "503", "30.00", "7" );
+        feed.poll();
+
+        assertEquals( 3, feed.flush( true ) );
+        assertEquals( 2, server.stockRequests.get() );
+        assertEquals( 3, server.stockRecords.get() );
+        assertEquals( 2, gateway.getMetrics().getCounter( Metrics.STOCK_CHANGES_COALESCED ) );
+        assertEquals( "5", new Watermark( watermarkFile ).read() );
+    }
+
+    public void testChangesWaitForWindow() throws Exception
+    {
+        StockFeed feed = feed( 60000, 100 );
+        source.set( "501", "10.00", "5" );
+        feed.poll();
+
+        assertEquals( 0, feed.flush( false ) );
+        assertEquals( 1, feed.getPending() );
+        assertNull( new Watermark( watermarkFile ).read() );
+        assertEquals( 1, feed.flush( true ) );
+        assertEquals( 0, feed.getPending() );
+    }
+
+    public void testUnchangedValuesAreNotResent() throws Exception
+    {
+        source.set( "501", "10.00", "5" );
+        StockFeed feed = feed( 0, 100 );
+        feed.poll();
+        feed.flush( true );
+
+        /* после перезапуска изменения с отметки; то же значение не отправляется повторно */
+        source.set( "501", "10.0", "5" );
+        source.set( "502", "20.00", "1" );
+        feed = feed( 0, 100 );
+        feed.poll();
+        assertEquals( 1, feed.flush( true ) );
+        assertEquals( 2, server.stockRecords.get() );
+    }
+
+    public void testFailedBatchStaysPending() throws Exception
+    {
+        StockFeed feed = feed( 0, 100 );
+        source.set( "501", "10.00", "5" );
+        feed.poll();
+        server.errorRate = 1;
+        try
+        {
+            feed.flush( true );
+            fail( "Failed upload must be reported" );
+        }
+        catch ( HillsException e )
+        {
+            assertEquals( 1, feed.getPending() );
+        }
+        assertNull( new Watermark( watermarkFile ).read() );
+
+        server.errorRate = 0;
+        assertEquals( 1, feed.flush( true ) );
+        assertEquals( "1", new Watermark( watermarkFile ).read() );
+    }
+
+    public void testRemovedPositionIsSentAsZeroOnRescan() throws Exception
+    {
+        source.set( "501", "10.00", "5" );
+        source.set( "502", "20.00", "1" );
+        StockFeed feed = feed( 0, 100 );
+        feed.poll();
+        assertEquals( 2, feed.flush( true ) );
+
+        /* удаленные строки не дают изменений по отметке; снимок без отметки сверки требует сверки */
+        source.remove( "502" );
+        feed = feed( 0, 100, 24 );
+        feed.poll();
+        assertEquals( 1, feed.flush( true ) );
+        assertEquals( 3, server.stockRecords.get() );
+
+        feed = feed( 0, 100, 24 );
+        feed.poll();
+        assertEquals( 0, feed.getPending() );
+    }
+}
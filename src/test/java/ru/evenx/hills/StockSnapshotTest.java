@@ -0,0 +1,48 @@
+package ru.evenx.hills;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Проверка отбора измененных позиций прайс-листа
+ */
+public class StockSnapshotTest 
+    extends TestCase
+{
+    private File file;
+
+    protected void setUp() throws IOException
+    {
+        file = File.createTempFile( "hills-stock", ".snapshot" );
+        file.delete();
+    }
+
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    public void testOnlyChangedRecordsAreSelected() throws IOException
+    {
+        List<StockRecord> first = StockRecord.parse( 
+            "{\"stock_records\":[{\"sku\":\"1\",\"price\":10.5,\"quantity\":3},{\"sku\":\"2\",\"price\":7,\"quantity\":0}]}" );
+        StockSnapshot snapshot = new StockSnapshot( file );
+        assertTrue( snapshot.isResyncDue( 24 ) );
+        snapshot.save( first, true );
+
+        List<StockRecord> second = StockRecord.parse( 
+            "{\"stock_records\":[{\"sku\":\"1\",\"price\":10.50,\"quantity\":3},{\"sku\":\"2\",\"price\":7,\"quantity\":5},"
+            + "{\"sku\":\"3\",\"price\":1,\"quantity\":1}]}" );
+        snapshot = new StockSnapshot( file );
+        assertFalse( snapshot.isResyncDue( 24 ) );
+        List<StockRecord> changed = snapshot.changed( second );
+        assertEquals( 2, changed.size() );
+        assertEquals( "2", changed.get( 0 ).sku );
+        assertEquals( "3", changed.get( 1 ).sku );
+        assertEquals( "{\"stock_records\":[{\"sku\":\"2\",\"price\":7,\"quantity\":5},{\"sku\":\"3\",\"price\":1,\"quantity\":1}]}", 
+            StockRecord.toJson( changed ) );
+    }
+}